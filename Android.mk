@@ -28,4 +28,6 @@ LOCAL_JAVA_LIBRARIES += android-support-v4 \
 LOCAL_AAPT_FLAGS := \
     --auto-add-overlay
 
-include $(BUILD_STATIC_JAVA_LIBRARY)
\ No newline at end of file
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images no larger than they will be drawn.
+ * <p>
+ * The bounds of the image are read first, so that it can be subsampled to the smallest power
+ * of two that still covers the target size and decoded straight into a pooled bitmap.
+ */
+final class BitmapDecoder {
+
+    private static final String TAG = BitmapDecoder.class.getSimpleName();
+
+    private BitmapDecoder() {}
+
+    /**
+     * Decode the image at {@code uri} for a target size, safe to call from any thread
+     *
+     * @param targetWidth  Width the image will be drawn at, or 0 to decode at full size
+     * @param targetHeight Height the image will be drawn at, or 0 to decode at full size
+     * @param pool         Pool to decode into, the caller must release the result to it
+     * @return {@link android.graphics.Bitmap} or null if the image can't be decoded
+     */
+    static Bitmap decode(ContentResolver resolver, Uri uri, int targetWidth, int targetHeight,
+            BitmapPool pool) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight,
+                targetWidth, targetHeight);
+        options.inPreferredConfig = chooseConfig(options.outMimeType);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        final int sampleSize = options.inSampleSize;
+        final Bitmap inBitmap = pool.obtain((options.outWidth + sampleSize - 1) / sampleSize,
+                (options.outHeight + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+        options.inBitmap = inBitmap;
+
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(resolver, uri, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder couldn't reuse the bitmap after all, so give it its own
+            options.inBitmap = null;
+            bitmap = decodeStream(resolver, uri, options);
+        }
+        if (bitmap != inBitmap) {
+            pool.release(inBitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Largest power of two to subsample by that still covers the target size
+     */
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth
+                && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Formats without an alpha channel don't need 32 bits per pixel, whatever alpha the
+     * rounded result needs is added when it is masked
+     */
+    static Bitmap.Config chooseConfig(String mimeType) {
+        return "image/jpeg".equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri,
+            BitmapFactory.Options options) {
+        InputStream in = null;
+        try {
+            in = resolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Unable to decode " + uri, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
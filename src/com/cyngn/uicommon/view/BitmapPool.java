@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Process-wide pool of mutable bitmaps for the {@link RoundedCornerImageView} pipeline, so
+ * that decoding and rounding reuse the memory of images that are no longer shown instead of
+ * allocating their own.
+ * <p>
+ * Bitmaps handed out by {@link #obtain(int, int, Bitmap.Config)} are reference counted. Every
+ * holder, i.e. the {@link RoundedBitmapCache} and each view drawing it, keeps a reference and
+ * {@link #release(Bitmap) releases} it when done, and the bitmap only goes back to the pool
+ * once nobody holds it anymore. It is then kept out of the pool until the render thread is
+ * done with the frames that may still draw it, so it is never reconfigured under a frame that
+ * is being rendered. Free bitmaps are bucketed by allocation size, the total size
+ * of the free bitmaps is capped and they are dropped in response to
+ * {@link ComponentCallbacks2#onTrimMemory(int)}.
+ * <p>
+ * Bitmaps that didn't come from the pool are never pooled, holding or releasing them is a
+ * no-op. All methods are thread safe.
+ */
+final class BitmapPool implements ComponentCallbacks2 {
+
+    // Fraction of the app's memory class to keep around in free bitmaps
+    private static final int MEMORY_CLASS_DIVISOR = 32;
+
+    // Bucket n holds bitmaps with an allocation of at least 2^n bytes
+    private static final int BUCKET_COUNT = 31;
+
+    private static BitmapPool sInstance;
+
+    private final IdentityHashMap<Bitmap, int[]> mReferences = new IdentityHashMap<>();
+    private final ArrayList<ArrayDeque<Bitmap>> mBuckets = new ArrayList<>(BUCKET_COUNT);
+    private final int mMaxBytes;
+    private int mBytes;
+
+    // Bitmaps nobody holds anymore, released since the last frame started and retiring from
+    // the frame before that. Only touched with the pool locked.
+    private ArrayList<Bitmap> mReleased = new ArrayList<>();
+    private ArrayList<Bitmap> mRetiring = new ArrayList<>();
+    private boolean mFrameCallbackPosted;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mPostFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            synchronized (BitmapPool.this) {
+                // Retiring bitmaps were released before the previous frame started. Drawing
+                // that frame waited for the render thread to finish the one before, which is
+                // the last one that can have drawn them.
+                for (int i = 0, size = mRetiring.size(); i < size; i++) {
+                    addFreeLocked(mRetiring.get(i));
+                }
+                mRetiring.clear();
+                final ArrayList<Bitmap> released = mReleased;
+                mReleased = mRetiring;
+                mRetiring = released;
+                if (mRetiring.isEmpty()) {
+                    mFrameCallbackPosted = false;
+                    return;
+                }
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    /**
+     * Returns the process-wide pool
+     *
+     * @param context {@link android.content.Context}
+     */
+    static synchronized BitmapPool getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final ActivityManager am =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new BitmapPool(am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR);
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.add(new ArrayDeque<Bitmap>());
+        }
+    }
+
+    /**
+     * Returns a transparent, mutable bitmap of the given size and config, reusing a free one
+     * if there is one large enough. The caller holds the only reference to it.
+     */
+    Bitmap obtain(int width, int height, Bitmap.Config config) {
+        final int bytes = width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+        Bitmap bitmap = null;
+        synchronized (this) {
+            // Don't waste more than 4 times the memory on a small bitmap
+            final int first = bucketAtLeast(bytes);
+            for (int i = first; i < Math.min(first + 2, BUCKET_COUNT) && bitmap == null; i++) {
+                bitmap = mBuckets.get(i).pollLast();
+            }
+            if (bitmap != null) {
+                mBytes -= bitmap.getAllocationByteCount();
+            }
+        }
+
+        if (bitmap != null) {
+            bitmap.reconfigure(width, height, config);
+            bitmap.eraseColor(Color.TRANSPARENT);
+        } else {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        synchronized (this) {
+            mReferences.put(bitmap, new int[] { 1 });
+        }
+        return bitmap;
+    }
+
+    /**
+     * Take another reference to a bitmap from {@link #obtain(int, int, Bitmap.Config)}
+     */
+    synchronized void acquire(Bitmap bitmap) {
+        final int[] count = bitmap != null ? mReferences.get(bitmap) : null;
+        if (count != null) {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Drop a reference, the bitmap may be handed out again a couple of frames after the last
+     * one is released
+     */
+    synchronized void release(Bitmap bitmap) {
+        final int[] count = bitmap != null ? mReferences.get(bitmap) : null;
+        if (count == null || --count[0] > 0) {
+            return;
+        }
+        mReferences.remove(bitmap);
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        mReleased.add(bitmap);
+        if (!mFrameCallbackPosted) {
+            // The choreographer belongs to the main thread, we may be called from a worker
+            mFrameCallbackPosted = true;
+            mMainHandler.post(mPostFrameCallback);
+        }
+    }
+
+    private void addFreeLocked(Bitmap bitmap) {
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bitmap.isRecycled() || mBytes + bytes > mMaxBytes) {
+            return;
+        }
+        mBuckets.get(bucketAtMost(bytes)).addLast(bitmap);
+        mBytes += bytes;
+    }
+
+    /**
+     * Drop free bitmaps, largest first, until they take up no more than {@code maxBytes}
+     */
+    synchronized void trimToSize(int maxBytes) {
+        if (maxBytes <= 0) {
+            // Let go of the ones on their way back in too
+            mReleased.clear();
+            mRetiring.clear();
+        }
+        for (int i = BUCKET_COUNT - 1; i >= 0 && mBytes > maxBytes; i--) {
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(i);
+            while (!bucket.isEmpty() && mBytes > maxBytes) {
+                mBytes -= bucket.pollFirst().getAllocationByteCount();
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimToSize(TrimLevels.trimmedSize(level, mMaxBytes));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // empty
+    }
+
+    private static int bucketAtLeast(int bytes) {
+        return bytes <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+
+    private static int bucketAtMost(int bytes) {
+        return Math.min(31 - Integer.numberOfLeadingZeros(bytes), BUCKET_COUNT - 1);
+    }
+}
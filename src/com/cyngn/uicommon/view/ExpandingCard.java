@@ -2,21 +2,24 @@ package com.cyngn.uicommon.view;
 
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Color;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.support.v7.widget.DefaultItemAnimator;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.animation.AccelerateInterpolator;
-import android.view.animation.Interpolator;
 import android.widget.FrameLayout;
 import android.widget.ListView;
 import com.cyngn.uicommon.R;
@@ -33,6 +36,7 @@ public class ExpandingCard extends FrameLayout {
 
     private static final int EXPAND_DURATION = 200;
     private ListView mList;
+    private RecyclerView mRecyclerView;
     private ViewGroup mRowContainer;
     private boolean mRowContainerInitialized;
 
@@ -40,6 +44,24 @@ public class ExpandingCard extends FrameLayout {
         mList = listView;
     }
 
+    public void setRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    /**
+     * Take the aux view from a pool shared with the other cards of the list instead of
+     * inflating it into every card.  The panel is added on expand and handed back to the
+     * pool once the card has collapsed.
+     *
+     * @param pool
+     */
+    public void setAuxViewPool(AuxViewPool pool) {
+        if (pool != mAuxViewPool) {
+            releaseAuxPanel();
+            mAuxViewPool = pool;
+        }
+    }
+
     public static enum AnimationType {
         // the bottom of the aux view is anchored and the content view slides
         // up to reveal it
@@ -58,12 +80,49 @@ public class ExpandingCard extends FrameLayout {
     private View mMainView;
     private View mAuxView;
 
+    private AuxViewPool mAuxViewPool;
+    private View mAuxPanel;
+    private int mAuxHeight;
+
     private int mAuxTop = -1;
     private int mMainBottom = -1;
     private ColorDrawable mColor;
     private GradientDrawable mColorSelected;
     private int mCardElevation;
 
+    // Expand/collapse animation state. The card is laid out collapsed while an animation runs,
+    // drawn taller than its layout, and the rows below it are moved out of the way right
+    // before every frame is drawn. Everything is created once per card and reused.
+    private final ValueAnimator mExpansionAnimator = ValueAnimator.ofFloat(0f, 1f);
+    private final ExpansionListener mExpansionListener = new ExpansionListener();
+    private ObjectAnimator mAuxFadeIn;
+    private TransitionDrawable mBackgroundTransition;
+    private boolean mTransitionSelected;
+    private boolean mExpanding;
+    private boolean mExpansionPrepared;
+    // whether the expanded card is laid out with the main view's bottom margin, as
+    // ANCHOR_BOTTOM does, rather than the aux view's top margin
+    private boolean mAnchorBottom;
+    private int mRevealFrom;
+    private int mRevealTo;
+    private int mRevealHeight;
+    private ViewTreeObserver mRevealObserver;
+    private final ExpandingCardScroller mScroller = new ExpandingCardScroller();
+    private final Rect mRevealClip = new Rect();
+    private final Rect mRevealBackgroundBounds = new Rect();
+    private int mRevealExtent;
+    private int mRowsBelowOffset;
+    // rows below the card that currently carry mRowsBelowOffset in their translation
+    private final ArrayList<View> mRowsBelow = new ArrayList<View>();
+    private final ArrayList<ViewGroup> mUnclippedParents = new ArrayList<ViewGroup>();
+
+    // what the card was last bound to by an ExpandingCardManager
+    private long mBoundCardId;
+    private int mBoundPosition;
+
+    private static final MarginSetter TOP_MARGIN_SETTER = new TopMarginSetter();
+    private static final MarginSetter BOTTOM_MARGIN_SETTER = new BottomMarginSetter();
+
     public ExpandingCard(Context context) {
         super(context);
     }
@@ -88,9 +147,25 @@ public class ExpandingCard extends FrameLayout {
 
         Resources res = getResources();
         mCardElevation = res.getDimensionPixelSize(R.dimen.expanding_card_elevation);
-        mColor = new ColorDrawable(res.getColor(R.color.expanding_card_color));
+        Context context = getContext();
+        mColor = new ColorDrawable(context.getColor(R.color.expanding_card_color));
         mColorSelected = new GradientDrawable(GradientDrawable.Orientation.BOTTOM_TOP,
-                new int[]{res.getColor(R.color.expanding_card_start_gradient), res.getColor(R.color.expanding_card_selected_color)});
+                new int[]{context.getColor(R.color.expanding_card_start_gradient),
+                        context.getColor(R.color.expanding_card_selected_color)});
+
+        // the transition gets its own copies of the backgrounds, a drawable can only have
+        // one callback
+        mBackgroundTransition = new TransitionDrawable(new Drawable[]{
+                mColor.getConstantState().newDrawable(res),
+                mColorSelected.getConstantState().newDrawable(res)});
+
+        mExpansionAnimator.setDuration(EXPAND_DURATION);
+        mExpansionAnimator.addUpdateListener(mExpansionListener);
+        mExpansionAnimator.addListener(mExpansionListener);
+
+        mAuxFadeIn = ObjectAnimator.ofFloat(mAuxView, View.ALPHA, 0f, 1f);
+        mAuxFadeIn.setDuration(100);
+        mAuxFadeIn.setInterpolator(new AccelerateInterpolator());
     }
 
     /**
@@ -99,195 +174,356 @@ public class ExpandingCard extends FrameLayout {
      * @param type
      */
     public void expand(AnimationType type) {
+        endRunningAnimation();
         mAuxView.setVisibility(View.VISIBLE);
+        obtainAuxPanel();
 
-        int mid = mMainView.getHeight() - mAuxView.getHeight();
-        int bottom = mMainView.getHeight();
-
-        ValueAnimator anim = null;
+        mAnchorBottom = type == AnimationType.ANCHOR_BOTTOM;
         switch(type) {
             case ANCHOR_BOTTOM:
-                anim = ValueAnimator.ofInt(0, bottom - mid);
-                anim.addUpdateListener(
-                        new MarginTwiddler(mMainView, new BottomMarginSetter()));
-                break;
             case ANCHOR_TOP:
-                anim = ValueAnimator.ofInt(mid, bottom);
-                anim.addUpdateListener(
-                        new MarginTwiddler(mAuxView, new TopMarginSetter()));
+                startExpansion(true);
                 break;
             case NONE:
-                new TopMarginSetter().setMargin(mAuxView, bottom);
+                mAuxFadeIn.cancel();
+                mAuxView.setAlpha(1f);
+                BOTTOM_MARGIN_SETTER.setMargin(mMainView, 0);
+                TOP_MARGIN_SETTER.setMargin(mAuxView, mMainView.getHeight());
                 mContainerView.setBackground(mColorSelected);
                 if (mRowContainer != null) {
                     mRowContainer.setTranslationZ(mCardElevation);
                 }
                 break;
         }
-
-        if (anim != null) {
-            mAuxView.setAlpha(0f);
-            List<Animator> animations = new ArrayList<Animator>();
-            animations.add(anim);
-            animations.add(getShadowAnimation(true));
-
-            if (mList != null && mRowContainer != null) {
-                // Set up the animator to animate the expansion and shadow depth.
-                ValueAnimator animator = ValueAnimator.ofFloat(0f, 1f);
-                int scrollingNeeded = 0;
-
-                if (mRowContainer.getTop() < 0) {
-                    scrollingNeeded = mRowContainer.getTop(); // view at top/partially visible
-                } else {
-                    int listViewHeight = mList.getHeight();
-                    int offset = mRowContainer.getTop() + mRowContainer.getHeight()
-                            + mAuxView.getHeight() - listViewHeight;
-                    if (offset > 0) {
-                        scrollingNeeded = offset;
-                    }
-                }
-                final int finalScrollingNeeded = scrollingNeeded;
-                animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-
-                    private int mCurrentScroll = 0;
-
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animator) {
-                        Float value = (Float) animator.getAnimatedValue();
-                        if (mList != null) {
-                            int scrollBy = (int) (value * finalScrollingNeeded) - mCurrentScroll;
-                            mList.smoothScrollBy(scrollBy, /* duration = */ 0);
-                            mCurrentScroll += scrollBy;
-                        }
-                    }
-                });
-                animations.add(animator);
-            }
-
-            AnimatorSet set = new AnimatorSet();
-            set.playTogether(animations);
-            set.addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationStart(Animator animation) {
-                    TransitionDrawable transitionDrawable =
-                            new TransitionDrawable(new Drawable[]{mColor, mColorSelected});
-                    mContainerView.setBackground(transitionDrawable);
-                    transitionDrawable.startTransition(EXPAND_DURATION);
-                }
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    getAlphaAnimation(true).start();
-                }
-            });
-            set.setDuration(EXPAND_DURATION);
-            set.start();
-        }
     }
 
     /**
      * Collapse the card using the same anchor that was used to expand it.
      */
     public void collapse() {
+        endRunningAnimation();
+        mAuxFadeIn.cancel();
         MarginLayoutParams mlp = (MarginLayoutParams)mMainView.getLayoutParams();
         MarginLayoutParams alp = (MarginLayoutParams)mAuxView.getLayoutParams();
 
-        // whichever margin is out of alignment due to an expand, animate that margin back
-        // to its original position
-        ValueAnimator anim = null;
-        if (mlp.bottomMargin > 0) {
-            anim = ValueAnimator.ofInt(mlp.bottomMargin, 0);
-            anim.addUpdateListener(
-                    new MarginTwiddler(mMainView, new BottomMarginSetter()));
-        } else if (alp.topMargin > 0) {
-            anim = ValueAnimator.ofInt(alp.topMargin, 0);
-            anim.addUpdateListener(
-                    new MarginTwiddler(mAuxView, new TopMarginSetter()));
-        }
-
-        if (anim != null) {
-            List<Animator> animations = new ArrayList<Animator>();
-            animations.add(getShadowAnimation(false));
-            animations.add(anim);
-            Animator alphaAnimator = getAlphaAnimation(false);
-            animations.add(alphaAnimator);
-            final AnimatorSet set = new AnimatorSet();
-            set.playTogether(animations);
-            set.setDuration(EXPAND_DURATION);
-            set.addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationStart(Animator animation) {
-                    TransitionDrawable transitionDrawable = new TransitionDrawable(new Drawable[]{mColorSelected, mColor});
-                    mContainerView.setBackground(transitionDrawable);
-                    transitionDrawable.startTransition(EXPAND_DURATION);
-                }
-
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    mAuxView.setVisibility(View.INVISIBLE);
-                }
-            });
-            set.start();
+        // if a margin is out of alignment due to an expand, animate the card back to its
+        // collapsed height
+        if (mlp.bottomMargin > 0 || alp.topMargin > 0) {
+            startExpansion(false);
         } else {
             // layouts are already collapsed.  reset colors/visibility for completeness
             mAuxView.setVisibility(View.INVISIBLE);
+            releaseAuxPanel();
             resetColors();
         }
     }
 
-    private Animator getAlphaAnimation(boolean isExpand) {
-        float start = isExpand ? 0f : 1f;
-        float end = isExpand ? 1f : 0f;
-        ObjectAnimator alphaAnimator = ObjectAnimator.ofFloat(
-                mAuxView, View.ALPHA, start, end);
-        alphaAnimator.setDuration(100);
+    /**
+     * Animate the visible height of the card between its collapsed and expanded heights, along
+     * with its shadow, background and the aux view. The card is only laid out collapsed, once,
+     * before the animation: every frame moves the aux view and the rows below, and draws the
+     * card past its bottom. An expanded card commits its margins with a single layout at the
+     * end.
+     */
+    private void startExpansion(boolean isExpand) {
+        prepareExpansion(isExpand);
+        mExpansionAnimator.start();
+    }
+
+    /**
+     * Get the card ready to animate, and draw it as it was before the expand or collapse until
+     * {@link #startPreparedExpansion()}. The card may already be laid out in its new state, as
+     * it is when a {@link RecyclerView} binds it, the animation works from whatever layout it
+     * has.
+     */
+    void prepareExpansion(boolean isExpand) {
+        endRunningAnimation();
+        mExpanding = isExpand;
+        if (isExpand) {
+            mAuxView.setAlpha(0f);
+            resetColors();
+        } else {
+            mAuxFadeIn.cancel();
+            mAuxView.setVisibility(View.VISIBLE);
+            if (mAuxPanel == null) {
+                // handed back to the pool when the card was bound collapsed
+                obtainAuxPanel();
+            }
+            mAuxView.setAlpha(1f);
+            mContainerView.setBackground(mColorSelected);
+        }
+        if (mRowContainer != null) {
+            mRowContainer.setTranslationZ(isExpand ? 0 : mCardElevation);
+        }
+
+        final int collapsedHeight = mMainView.getHeight();
+        mAuxHeight = measureAuxHeight();
+        final int expandedHeight = collapsedHeight + mAuxHeight;
+        mRevealFrom = isExpand ? collapsedHeight : expandedHeight;
+        mRevealTo = isExpand ? expandedHeight : collapsedHeight;
         if (!isExpand) {
-            alphaAnimator.setInterpolator(new Interpolator() {
-                @Override
-                public float getInterpolation(float input) {
-                    return Math.min(1, input * 4);
-                }
-            });
+            // A collapsing card is laid out collapsed right away, so the list fills in the
+            // bottom while the rows below move up instead of leaving a gap until the end
+            BOTTOM_MARGIN_SETTER.setMargin(mMainView, 0);
+            TOP_MARGIN_SETTER.setMargin(mAuxView, 0);
+        }
+        // only an expanding card is brought into view
+        mScroller.start(isExpand ? getListContainer() : null, mRowContainer,
+                Math.max(0, mRevealTo - getHeight()));
+        startReveal();
+        mExpansionPrepared = true;
+    }
+
+    void startPreparedExpansion() {
+        if (mExpansionPrepared) {
+            mExpansionAnimator.start();
+        }
+    }
+
+    private class ExpansionListener extends AnimatorListenerAdapter
+            implements ValueAnimator.AnimatorUpdateListener, ViewTreeObserver.OnPreDrawListener {
+        @Override
+        public void onAnimationStart(Animator animation) {
+            mExpansionPrepared = false;
+            startBackgroundTransition(mExpanding);
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator animator) {
+            final float fraction = animator.getAnimatedFraction();
+            mRevealHeight = mRevealFrom + Math.round((mRevealTo - mRevealFrom) * fraction);
+            invalidate();
+
+            // the shadow grows over time, creating the illusion that the card is lifting up
+            // out of the view
+            if (mRowContainer != null) {
+                mRowContainer.setTranslationZ(
+                        mCardElevation * (mExpanding ? fraction : 1f - fraction));
+            }
+
+            if (!mExpanding) {
+                // get the actions out of the way quickly
+                final float time = (float) animator.getCurrentPlayTime() / EXPAND_DURATION;
+                mAuxView.setAlpha(1f - Math.min(1f, time * 4));
+            }
+            mScroller.update(fraction);
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            // after any layout of the frame, so rows attached, recycled or moved by it are
+            // caught before they are drawn
+            applyRevealHeight();
+            return true;
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            endReveal(mExpanding);
+            if (mExpanding) {
+                mAuxFadeIn.start();
+            } else {
+                mAuxView.setVisibility(View.INVISIBLE);
+                releaseAuxPanel();
+            }
+        }
+    }
+
+    private void startBackgroundTransition(boolean isExpand) {
+        mContainerView.setBackground(mBackgroundTransition);
+        if (isExpand) {
+            mBackgroundTransition.startTransition(EXPAND_DURATION);
         } else {
-            alphaAnimator.setInterpolator(new AccelerateInterpolator());
+            if (!mTransitionSelected) {
+                // jump to the selected end first so that it can be reversed from there
+                mBackgroundTransition.startTransition(0);
+            }
+            mBackgroundTransition.reverseTransition(EXPAND_DURATION);
+        }
+        mTransitionSelected = isExpand;
+    }
+
+    private void startReveal() {
+        mRevealHeight = mRevealFrom;
+        mRevealObserver = getViewTreeObserver();
+        mRevealObserver.addOnPreDrawListener(mExpansionListener);
+        if (mRowContainer != null) {
+            // The card and its aux view draw past its bottom until the animation ends
+            ViewGroup parent = (ViewGroup) mAuxView.getParent();
+            final ViewGroup list = getListContainer();
+            while (parent != null && parent != list) {
+                if (parent.getClipChildren()) {
+                    parent.setClipChildren(false);
+                    mUnclippedParents.add(parent);
+                }
+                parent = parent == mRowContainer || !(parent.getParent() instanceof ViewGroup)
+                        ? null : (ViewGroup) parent.getParent();
+            }
         }
-        return alphaAnimator;
     }
 
     /**
-     * Gradually decrease the margins of the shadow view so that the shadow grows over
-     * time, creating the illusion that the card is lifting up out of the view.
-     *
-     * @param isExpand
-     * @return
+     * Draw the card as if it was laid out at the current reveal height
      */
-    private Animator getShadowAnimation(boolean isExpand) {
-        float fromElevation = isExpand ? 0 : mCardElevation;
-        float toElevation = mCardElevation - fromElevation;
+    private void applyRevealHeight() {
+        final int height = mRevealHeight;
+        final int offset = height - getHeight();
+        // Keep the aux view anchored to the bottom of the card. Both anchors leave it there,
+        // ANCHOR_BOTTOM by pushing it down with the main view's bottom margin and ANCHOR_TOP
+        // by sliding it out from behind the main view with its own top margin.
+        mAuxView.setTranslationY(height - mAuxHeight - mAuxView.getTop());
+        if (offset < 0) {
+            mRevealClip.set(0, 0, getWidth(), height);
+            setClipBounds(mRevealClip);
+        } else {
+            setClipBounds(null);
+        }
+        mRevealExtent = Math.max(offset, 0);
+        invalidate();
+        offsetRowsBelow(offset);
+    }
 
-        ValueAnimator anim = ValueAnimator.ofFloat(fromElevation, toElevation);
-        anim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animator) {
-                if (mRowContainer != null) {
-                    mRowContainer.setTranslationZ((Float) animator.getAnimatedValue());
-                    mRowContainer.requestLayout();
+    /**
+     * Move the rows currently below the card by the given offset. The rows are looked up
+     * again every time, rows that are no longer below, e.g. recycled or scrolled out, get
+     * their translation back and rows that appeared are moved along. Offsets are applied
+     * relative to the current translation so that a card collapsing above this one can move
+     * the same rows.
+     */
+    private void offsetRowsBelow(int offset) {
+        final ViewGroup list = mRowContainer != null
+                && mRowContainer.getParent() instanceof ViewGroup
+                ? (ViewGroup) mRowContainer.getParent() : null;
+        for (int i = mRowsBelow.size() - 1; i >= 0; i--) {
+            View row = mRowsBelow.get(i);
+            if (list == null || !isRowBelow(list, mRowContainer, row)) {
+                row.setTranslationY(row.getTranslationY() - mRowsBelowOffset);
+                mRowsBelow.remove(i);
+            } else if (offset != mRowsBelowOffset) {
+                row.setTranslationY(row.getTranslationY() + offset - mRowsBelowOffset);
+            }
+        }
+        if (list != null && offset != 0) {
+            for (int i = 0; i < list.getChildCount(); i++) {
+                View row = list.getChildAt(i);
+                if (isRowBelow(list, mRowContainer, row) && !mRowsBelow.contains(row)) {
+                    row.setTranslationY(row.getTranslationY() + offset);
+                    mRowsBelow.add(row);
                 }
             }
-        });
-        return anim;
+        }
+        mRowsBelowOffset = offset;
+    }
+
+    /**
+     * Returns true if {@code child} is a row of the list below {@code row}. The children of a
+     * {@link RecyclerView} are not kept in adapter order, so they are compared by position,
+     * or by where they are laid out for rows that have none, e.g. ones being removed.
+     */
+    static boolean isRowBelow(ViewGroup list, View row, View child) {
+        if (child == row || child.getParent() != list || row.getParent() != list) {
+            return false;
+        }
+        if (list instanceof RecyclerView) {
+            final RecyclerView recyclerView = (RecyclerView) list;
+            final int position = recyclerView.getChildAdapterPosition(row);
+            final int childPosition = recyclerView.getChildAdapterPosition(child);
+            if (position != RecyclerView.NO_POSITION
+                    && childPosition != RecyclerView.NO_POSITION) {
+                return childPosition > position;
+            }
+            final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+            return layoutManager != null && layoutManager.getDecoratedTop(child)
+                    >= layoutManager.getDecoratedBottom(row);
+        }
+        return list.indexOfChild(child) > list.indexOfChild(row);
+    }
+
+    /**
+     * Give every row we moved its translation back, wherever it is now
+     */
+    private void clearRowsBelow() {
+        for (int i = 0; i < mRowsBelow.size(); i++) {
+            View row = mRowsBelow.get(i);
+            row.setTranslationY(row.getTranslationY() - mRowsBelowOffset);
+        }
+        mRowsBelow.clear();
+        mRowsBelowOffset = 0;
+    }
+
+    private void endReveal(boolean isExpand) {
+        mExpansionPrepared = false;
+        if (mRevealObserver != null) {
+            if (mRevealObserver.isAlive()) {
+                mRevealObserver.removeOnPreDrawListener(mExpansionListener);
+            }
+            mRevealObserver = null;
+        }
+        clearRowsBelow();
+        for (int i = 0; i < mUnclippedParents.size(); i++) {
+            mUnclippedParents.get(i).setClipChildren(true);
+        }
+        mUnclippedParents.clear();
+        mRevealExtent = 0;
+        setClipBounds(null);
+        mAuxView.setTranslationY(0);
+
+        // The only layout of the whole animation
+        final boolean anchorBottom = isExpand && mAnchorBottom;
+        BOTTOM_MARGIN_SETTER.setMargin(mMainView, anchorBottom ? mAuxHeight : 0);
+        TOP_MARGIN_SETTER.setMargin(mAuxView,
+                isExpand && !anchorBottom ? mMainView.getHeight() : 0);
+    }
+
+    /**
+     * Returns the expand or collapse animation in progress or prepared, if any
+     */
+    Animator getRunningAnimation() {
+        return mExpansionAnimator.isStarted() || mExpansionPrepared ? mExpansionAnimator : null;
+    }
+
+    void endRunningAnimation() {
+        // ending an animation that was only prepared starts it first, so it is cleaned up the
+        // same way
+        if (mExpansionAnimator.isStarted() || mExpansionPrepared) {
+            mExpansionAnimator.end();
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        final Drawable background = mContainerView.getBackground();
+        if (mRevealExtent > 0 && background != null) {
+            // The part of the card that is revealed before it is laid out gets the background
+            // the card has right now, stretched over the revealed height so that it follows
+            // the selected gradient and transition
+            mRevealBackgroundBounds.set(background.getBounds());
+            canvas.save();
+            canvas.clipRect(0, getHeight(), getWidth(), getHeight() + mRevealExtent);
+            canvas.translate(mContainerView.getLeft(), mContainerView.getTop());
+            background.setBounds(0, 0, mContainerView.getWidth(),
+                    mContainerView.getHeight() + mRevealExtent);
+            background.draw(canvas);
+            background.setBounds(mRevealBackgroundBounds);
+            canvas.restore();
+        }
+        super.dispatchDraw(canvas);
     }
 
     /**
      * Puts card back in original collapsed state
      */
     public void reset() {
+        endRunningAnimation();
+        mAuxFadeIn.cancel();
         resetColors();
         if (mRowContainer != null) {
             mRowContainer.setTranslationZ(0);
         }
         mAuxView.setVisibility(View.INVISIBLE);
-        new BottomMarginSetter().setMargin(mMainView, 0);
-        new TopMarginSetter().setMargin(mAuxView, 0);
+        releaseAuxPanel();
+        BOTTOM_MARGIN_SETTER.setMargin(mMainView, 0);
+        TOP_MARGIN_SETTER.setMargin(mAuxView, 0);
         mAuxTop = -1;
         mMainBottom = -1;
     }
@@ -296,21 +532,97 @@ public class ExpandingCard extends FrameLayout {
         mContainerView.setBackground(mColor);
     }
 
-    private class MarginTwiddler implements ValueAnimator.AnimatorUpdateListener {
+    private void obtainAuxPanel() {
+        if (mAuxViewPool == null) {
+            return;
+        }
+        if (mAuxPanel == null) {
+            mAuxPanel = mAuxViewPool.obtain((ViewGroup) mAuxView);
+            ((ViewGroup) mAuxView).addView(mAuxPanel);
+        }
+        mAuxViewPool.bind(this, mAuxPanel);
+    }
 
-        private View mView;
-        private MarginSetter mMarginSetter;
+    private void releaseAuxPanel() {
+        if (mAuxPanel != null) {
+            ((ViewGroup) mAuxView).removeView(mAuxPanel);
+            mAuxViewPool.recycle(mAuxPanel);
+            mAuxPanel = null;
+        }
+    }
 
-        public MarginTwiddler(View view, MarginSetter m) {
-            mView = view;
-            mMarginSetter = m;
+    /**
+     * Height of the aux view once it is laid out, a panel that was just added hasn't been
+     * measured yet
+     */
+    private int measureAuxHeight() {
+        if (!mAuxView.isLayoutRequested()) {
+            return mAuxView.getHeight();
         }
+        int widthSpec = MeasureSpec.makeMeasureSpec(mContainerView.getWidth(), MeasureSpec.EXACTLY);
+        mAuxView.measure(widthSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        return mAuxView.getMeasuredHeight();
+    }
 
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            int val = (Integer)animation.getAnimatedValue();
-            mMarginSetter.setMargin(mView, val);
-            mExpandingCard.requestLayout();
+    /**
+     * Called when a pooled aux view is shown in a card
+     */
+    public interface AuxViewBinder {
+        /**
+         * Point the aux view at the item shown by the card, e.g. its click listeners
+         *
+         * @param card
+         * @param auxView
+         */
+        public void onBindAuxView(ExpandingCard card, View auxView);
+    }
+
+    /**
+     * Aux views shared by the cards of a list.  Only the expanded card, and a card that is
+     * still collapsing, hold a panel, so a couple of panels serve the whole list and are
+     * handed from card to card as the selection moves.  Panels are inflated the first time
+     * they are needed.
+     */
+    public static class AuxViewPool {
+        private final LayoutInflater mInflater;
+        private final int mLayoutResId;
+        private final int mMaxPanels;
+        private final ArrayList<View> mPanels = new ArrayList<View>();
+        private AuxViewBinder mBinder;
+
+        /**
+         * @param context
+         * @param layoutResId Layout of the aux view
+         * @param maxPanels   Number of free panels to keep around
+         */
+        public AuxViewPool(Context context, int layoutResId, int maxPanels) {
+            mInflater = LayoutInflater.from(context);
+            mLayoutResId = layoutResId;
+            mMaxPanels = maxPanels;
+        }
+
+        public void setBinder(AuxViewBinder binder) {
+            mBinder = binder;
+        }
+
+        View obtain(ViewGroup parent) {
+            int last = mPanels.size() - 1;
+            if (last >= 0) {
+                return mPanels.remove(last);
+            }
+            return mInflater.inflate(mLayoutResId, parent, false);
+        }
+
+        void bind(ExpandingCard card, View panel) {
+            if (mBinder != null) {
+                mBinder.onBindAuxView(card, panel);
+            }
+        }
+
+        void recycle(View panel) {
+            if (mPanels.size() < mMaxPanels) {
+                mPanels.add(panel);
+            }
         }
     }
 
@@ -323,8 +635,10 @@ public class ExpandingCard extends FrameLayout {
         public void setMargin(View v, int margin) {
             FrameLayout.LayoutParams lp =
                     (FrameLayout.LayoutParams)v.getLayoutParams();
-            lp.topMargin = margin;
-            v.setLayoutParams(lp);
+            if (lp.topMargin != margin) {
+                lp.topMargin = margin;
+                v.setLayoutParams(lp);
+            }
         }
     }
 
@@ -333,8 +647,10 @@ public class ExpandingCard extends FrameLayout {
         public void setMargin(View v, int margin) {
             FrameLayout.LayoutParams lp =
                     (FrameLayout.LayoutParams)v.getLayoutParams();
-            lp.bottomMargin = margin;
-            v.setLayoutParams(lp);
+            if (lp.bottomMargin != margin) {
+                lp.bottomMargin = margin;
+                v.setLayoutParams(lp);
+            }
         }
     }
 
@@ -361,52 +677,455 @@ public class ExpandingCard extends FrameLayout {
          */
         public void onBindExpandingCard(final ExpandingCard card, final long cardId, final int position) {
             card.reset();
-            card.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    if (cardId == mSelectedCardId) {
-                        card.collapse();
-                        mSelectedCardId = -1;
-                        mSelectedCard = null;
-                    } else {
-                        int selectedCardPosition = -1;
-                        // when the selection is moved from one card to another, we want the
-                        // newly selected card to expand into the space left by the collpasing
-                        // one.
-                        if (mSelectedCardId >= 0) {
-                            for (int i = mList.getFirstVisiblePosition(); i <= mList.getLastVisiblePosition(); i++) {
-                                long id = mList.getAdapter().getItemId(i);
-                                if (id == mSelectedCardId) {
-                                    selectedCardPosition = i;
-                                    break;
-                                }
+            card.mBoundCardId = cardId;
+            card.mBoundPosition = position;
+            card.setOnClickListener(mClickListener);
+            if (cardId == mSelectedCardId) {
+                // selected card is coming back into view on a scroll, show selected
+                // state without animation
+                mSelectedCard = card;
+                card.expand(AnimationType.NONE);
+            }
+        }
+
+        // shared by all cards, they carry what they are bound to
+        private final View.OnClickListener mClickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ExpandingCard card = (ExpandingCard) v;
+                long cardId = card.mBoundCardId;
+                if (cardId == mSelectedCardId) {
+                    card.collapse();
+                    mSelectedCardId = -1;
+                    mSelectedCard = null;
+                } else {
+                    int selectedCardPosition = -1;
+                    // when the selection is moved from one card to another, we want the
+                    // newly selected card to expand into the space left by the collpasing
+                    // one.
+                    if (mSelectedCardId >= 0) {
+                        for (int i = mList.getFirstVisiblePosition(); i <= mList.getLastVisiblePosition(); i++) {
+                            long id = mList.getAdapter().getItemId(i);
+                            if (id == mSelectedCardId) {
+                                selectedCardPosition = i;
+                                break;
                             }
                         }
-                        if (selectedCardPosition != -1 && position > selectedCardPosition) {
-                            card.expand(AnimationType.ANCHOR_BOTTOM);
-                        } else {
-                            card.expand(AnimationType.ANCHOR_TOP);
-                        }
+                    }
+                    if (selectedCardPosition != -1 && card.mBoundPosition > selectedCardPosition) {
+                        card.expand(AnimationType.ANCHOR_BOTTOM);
+                    } else {
+                        card.expand(AnimationType.ANCHOR_TOP);
+                    }
+
+                    // If the currently selected card is in view, animate it closing.
+                    // We're assuming that our reference to the selected card view is still
+                    // valid is long as it is visible.
+                    if (mSelectedCard != null && selectedCardPosition >= 0) {
+                        mSelectedCard.collapse();
+                    }
+
+                    mSelectedCardId = cardId;
+                    mSelectedCard = card;
+                }
+            }
+        };
+    }
+
+    // Payload of a change that collapses a card, expanding changes carry their AnimationType
+    private static final Object PAYLOAD_COLLAPSE = new Object();
 
-                        // If the currently selected card is in view, animate it closing.
-                        // We're assuming that our reference to the selected card view is still
-                        // valid is long as it is visible.
-                        if (mSelectedCard != null && selectedCardPosition >= 0) {
-                            mSelectedCard.collapse();
+    /**
+     * Returns the expand or collapse requested by the payloads of a partial bind, null if
+     * there is none
+     */
+    private static Object getExpansionPayload(List<Object> payloads) {
+        Object expansion = null;
+        for (int i = 0; i < payloads.size(); i++) {
+            Object payload = payloads.get(i);
+            if (payload == PAYLOAD_COLLAPSE || payload instanceof AnimationType) {
+                expansion = payload;
+            }
+        }
+        return expansion;
+    }
+
+    private static ExpandingCard findExpandingCard(View itemView) {
+        return itemView instanceof ExpandingCard ? (ExpandingCard) itemView
+                : (ExpandingCard) itemView.findViewById(R.id.expandingCard);
+    }
+
+    /**
+     * {@link ExpandingCardManager} for a {@link RecyclerView}.  The position of the selected
+     * card is kept up to date as the adapter changes, so moving the selection never has to
+     * look for it, and cards are expanded and collapsed in place through partial binds that
+     * are animated by an {@link ExpandingCardItemAnimator}.  The manager sets one on the list
+     * unless the list already has one, e.g. a subclass with the app's own animations, or has
+     * no item animator at all.
+     * <p>
+     * The adapter must have stable ids and be set before the manager is created, and
+     * {@link #release()} undoes both when the manager is no longer used.  Adapters
+     * overriding {@link RecyclerView.Adapter#onBindViewHolder(RecyclerView.ViewHolder, int, List)}
+     * can skip binding their own views when {@link #isExpansionBind(List)} returns true.
+     */
+    public static class RecyclerExpandingCardManager {
+        private long mSelectedCardId = RecyclerView.NO_ID;
+        private int mSelectedPosition = RecyclerView.NO_POSITION;
+        private final RecyclerView mRecyclerView;
+        private final RecyclerView.Adapter<?> mAdapter;
+        // the item animator the list had before the manager set its own
+        private final RecyclerView.ItemAnimator mPreviousItemAnimator;
+        private final ExpandingCardItemAnimator mItemAnimator;
+
+        private final RecyclerView.AdapterDataObserver mObserver =
+                new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                // anything could have moved, look for the selected card once
+                mSelectedPosition = RecyclerView.NO_POSITION;
+                if (mSelectedCardId != RecyclerView.NO_ID) {
+                    for (int i = 0; i < mAdapter.getItemCount(); i++) {
+                        if (mAdapter.getItemId(i) == mSelectedCardId) {
+                            mSelectedPosition = i;
+                            break;
                         }
+                    }
+                    if (mSelectedPosition == RecyclerView.NO_POSITION) {
+                        mSelectedCardId = RecyclerView.NO_ID;
+                    }
+                }
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (mSelectedPosition != RecyclerView.NO_POSITION
+                        && positionStart <= mSelectedPosition) {
+                    mSelectedPosition += itemCount;
+                }
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                if (mSelectedPosition == RecyclerView.NO_POSITION
+                        || mSelectedPosition < positionStart) {
+                    return;
+                }
+                if (mSelectedPosition >= positionStart + itemCount) {
+                    mSelectedPosition -= itemCount;
+                } else {
+                    // the selected card is gone
+                    mSelectedPosition = RecyclerView.NO_POSITION;
+                    mSelectedCardId = RecyclerView.NO_ID;
+                }
+            }
 
-                        mSelectedCardId = cardId;
-                        mSelectedCard = card;
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                if (mSelectedPosition == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                if (mSelectedPosition >= fromPosition
+                        && mSelectedPosition < fromPosition + itemCount) {
+                    mSelectedPosition += toPosition - fromPosition;
+                } else if (fromPosition < toPosition) {
+                    if (mSelectedPosition > fromPosition && mSelectedPosition <= toPosition) {
+                        mSelectedPosition -= itemCount;
                     }
+                } else if (mSelectedPosition >= toPosition && mSelectedPosition < fromPosition) {
+                    mSelectedPosition += itemCount;
                 }
-            });
-            if (cardId == mSelectedCardId) {
-                // selected card is coming back into view on a scroll, show selected
-                // state without animation
-                mSelectedCard = card;
+            }
+        };
+
+        private final View.OnClickListener mClickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                RecyclerView.ViewHolder holder = findContainingViewHolder(v);
+                int position = holder != null
+                        ? holder.getAdapterPosition() : RecyclerView.NO_POSITION;
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                if (holder.getItemId() == mSelectedCardId) {
+                    mSelectedCardId = RecyclerView.NO_ID;
+                    mSelectedPosition = RecyclerView.NO_POSITION;
+                    mAdapter.notifyItemChanged(position, PAYLOAD_COLLAPSE);
+                } else {
+                    int previous = mSelectedPosition;
+                    mSelectedCardId = holder.getItemId();
+                    mSelectedPosition = position;
+                    mAdapter.notifyItemChanged(position, AnimationType.ANCHOR_TOP);
+                    if (previous != RecyclerView.NO_POSITION) {
+                        mAdapter.notifyItemChanged(previous, PAYLOAD_COLLAPSE);
+                    }
+                }
+            }
+        };
+
+        public RecyclerExpandingCardManager(RecyclerView recyclerView) {
+            mRecyclerView = recyclerView;
+            mAdapter = recyclerView.getAdapter();
+            if (mAdapter == null || !mAdapter.hasStableIds()) {
+                throw new IllegalArgumentException("RecyclerView adapter must have stable ids");
+            }
+            mAdapter.registerAdapterDataObserver(mObserver);
+            // cards of a list without an item animator just change state
+            final RecyclerView.ItemAnimator animator = recyclerView.getItemAnimator();
+            if (animator == null || animator instanceof ExpandingCardItemAnimator) {
+                mPreviousItemAnimator = null;
+                mItemAnimator = null;
+            } else {
+                mPreviousItemAnimator = animator;
+                mItemAnimator = new ExpandingCardItemAnimator();
+                recyclerView.setItemAnimator(mItemAnimator);
+            }
+        }
+
+        /**
+         * Stop following the adapter and give the {@link RecyclerView} back its own item
+         * animator. Call this before the manager is dropped while the adapter is still in use.
+         */
+        public void release() {
+            mAdapter.unregisterAdapterDataObserver(mObserver);
+            if (mItemAnimator != null && mRecyclerView.getItemAnimator() == mItemAnimator) {
+                mRecyclerView.setItemAnimator(mPreviousItemAnimator);
+            }
+        }
+
+        /**
+         * Returns true if a bind with these payloads only expands or collapses the card
+         *
+         * @param payloads
+         * @return
+         */
+        public static boolean isExpansionBind(List<Object> payloads) {
+            return getExpansionPayload(payloads) != null;
+        }
+
+        /**
+         * Invoke this method whenever a view holder with an expanding card is bound, with the
+         * payloads of the bind
+         *
+         * @param holder
+         * @param payloads
+         */
+        public void onBindExpandingCard(RecyclerView.ViewHolder holder, List<Object> payloads) {
+            ExpandingCard card = findExpandingCard(holder.itemView);
+            if (card == null) {
+                throw new IllegalArgumentException(
+                        "Item view must be or contain an ExpandingCard with id expandingCard");
+            }
+            card.setRecyclerView(mRecyclerView);
+            card.setOnClickListener(mClickListener);
+            // always bound in the state it ends up in, the item animator animates expansion
+            // binds from the state the card was drawn in
+            card.reset();
+            if (holder.getItemId() == mSelectedCardId) {
                 card.expand(AnimationType.NONE);
             }
         }
+
+        private RecyclerView.ViewHolder findContainingViewHolder(View v) {
+            while (v.getParent() instanceof View && v.getParent() != mRecyclerView) {
+                v = (View) v.getParent();
+            }
+            return v.getParent() == mRecyclerView ? mRecyclerView.getChildViewHolder(v) : null;
+        }
+    }
+
+    /**
+     * Item animator that expands and collapses cards in place for the partial binds of a
+     * {@link RecyclerExpandingCardManager}, everything else is animated the way a
+     * {@link DefaultItemAnimator} does.  Apps with their own animations can subclass it and
+     * set it on the list before creating the manager.
+     * <p>
+     * Cards are bound in their new state, so by the time the animations are set up the list is
+     * laid out the way it will end up. An expanding or collapsing card is drawn as it was and
+     * animates to its layout, moving the rows below it along, so the rows below that changed
+     * places are not animated here and are finished along with the cards.
+     */
+    public static class ExpandingCardItemAnimator extends DefaultItemAnimator {
+        // expansions of the current layout pass, recorded before the layout
+        private final ArrayList<RecyclerView.ViewHolder> mRecordedExpansions =
+                new ArrayList<RecyclerView.ViewHolder>();
+        // prepared in animateChange, started in runPendingAnimations
+        private final ArrayList<ExpandingCard> mPendingCards = new ArrayList<ExpandingCard>();
+        private final ArrayList<RecyclerView.ViewHolder> mExpansions =
+                new ArrayList<RecyclerView.ViewHolder>();
+        private final ArrayList<ExpandingCard> mExpansionCards = new ArrayList<ExpandingCard>();
+        // rows below the cards, finished once the last card is
+        private final ArrayList<RecyclerView.ViewHolder> mHeldRows =
+                new ArrayList<RecyclerView.ViewHolder>();
+
+        // shared by all expansions, each card has its own animator
+        private final AnimatorListenerAdapter mExpansionListener = new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                animation.removeListener(this);
+                for (int i = 0; i < mExpansionCards.size(); i++) {
+                    if (mExpansionCards.get(i).mExpansionAnimator == animation) {
+                        mPendingCards.remove(mExpansionCards.remove(i));
+                        dispatchChangeFinished(mExpansions.remove(i), true);
+                        if (mExpansions.isEmpty()) {
+                            finishHeldRows();
+                        }
+                        dispatchFinishedWhenDone();
+                        break;
+                    }
+                }
+            }
+        };
+
+        private static class ExpansionInfo extends ItemHolderInfo {
+            final Object mPayload;
+
+            ExpansionInfo(Object payload) {
+                mPayload = payload;
+            }
+        }
+
+        @Override
+        public boolean canReuseUpdatedViewHolder(RecyclerView.ViewHolder viewHolder,
+                List<Object> payloads) {
+            return getExpansionPayload(payloads) != null
+                    || super.canReuseUpdatedViewHolder(viewHolder, payloads);
+        }
+
+        @Override
+        public ItemHolderInfo recordPreLayoutInformation(RecyclerView.State state,
+                RecyclerView.ViewHolder viewHolder, int changeFlags, List<Object> payloads) {
+            Object payload = getExpansionPayload(payloads);
+            if (payload != null) {
+                mRecordedExpansions.add(viewHolder);
+                return new ExpansionInfo(payload).setFrom(viewHolder);
+            }
+            return super.recordPreLayoutInformation(state, viewHolder, changeFlags, payloads);
+        }
+
+        @Override
+        public boolean animateDisappearance(RecyclerView.ViewHolder viewHolder,
+                ItemHolderInfo preLayoutInfo, ItemHolderInfo postLayoutInfo) {
+            return !holdRowBelow(viewHolder, preLayoutInfo, postLayoutInfo)
+                    && super.animateDisappearance(viewHolder, preLayoutInfo, postLayoutInfo);
+        }
+
+        @Override
+        public boolean animateAppearance(RecyclerView.ViewHolder viewHolder,
+                ItemHolderInfo preLayoutInfo, ItemHolderInfo postLayoutInfo) {
+            return !holdRowBelow(viewHolder, preLayoutInfo, postLayoutInfo)
+                    && super.animateAppearance(viewHolder, preLayoutInfo, postLayoutInfo);
+        }
+
+        @Override
+        public boolean animatePersistence(RecyclerView.ViewHolder viewHolder,
+                ItemHolderInfo preLayoutInfo, ItemHolderInfo postLayoutInfo) {
+            return !holdRowBelow(viewHolder, preLayoutInfo, postLayoutInfo)
+                    && super.animatePersistence(viewHolder, preLayoutInfo, postLayoutInfo);
+        }
+
+        @Override
+        public boolean animateChange(RecyclerView.ViewHolder oldHolder,
+                RecyclerView.ViewHolder newHolder, ItemHolderInfo preInfo,
+                ItemHolderInfo postInfo) {
+            if (oldHolder == newHolder && preInfo instanceof ExpansionInfo) {
+                ExpandingCard card = findExpandingCard(newHolder.itemView);
+                if (card != null) {
+                    prepareExpansion(newHolder, card, ((ExpansionInfo) preInfo).mPayload);
+                    return true;
+                }
+                dispatchChangeFinished(newHolder, true);
+                return false;
+            }
+            if (oldHolder == newHolder && holdRowBelow(newHolder, preInfo, postInfo)) {
+                return false;
+            }
+            return super.animateChange(oldHolder, newHolder, preInfo, postInfo);
+        }
+
+        /**
+         * Draw the card as it was before it was bound until the pending animations are run
+         */
+        private void prepareExpansion(RecyclerView.ViewHolder holder, ExpandingCard card,
+                Object payload) {
+            card.prepareExpansion(payload != PAYLOAD_COLLAPSE);
+            mExpansions.add(holder);
+            mExpansionCards.add(card);
+            mPendingCards.add(card);
+            card.getRunningAnimation().addListener(mExpansionListener);
+        }
+
+        /**
+         * Returns true if the row moved because of an expansion of this layout pass, the card
+         * of the expansion moves it instead and the row is finished along with the card
+         */
+        private boolean holdRowBelow(RecyclerView.ViewHolder holder, ItemHolderInfo preInfo,
+                ItemHolderInfo postInfo) {
+            if (preInfo == null || postInfo == null || preInfo.top == postInfo.top) {
+                return false;
+            }
+            for (int i = 0; i < mRecordedExpansions.size(); i++) {
+                View row = mRecordedExpansions.get(i).itemView;
+                if (row.getParent() instanceof ViewGroup
+                        && isRowBelow((ViewGroup) row.getParent(), row, holder.itemView)) {
+                    mHeldRows.add(holder);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void finishHeldRows() {
+            for (int i = mHeldRows.size() - 1; i >= 0; i--) {
+                dispatchAnimationFinished(mHeldRows.remove(i));
+            }
+        }
+
+        private void dispatchFinishedWhenDone() {
+            if (!isRunning()) {
+                dispatchAnimationsFinished();
+            }
+        }
+
+        @Override
+        public void runPendingAnimations() {
+            mRecordedExpansions.clear();
+            for (int i = mPendingCards.size() - 1; i >= 0; i--) {
+                ExpandingCard card = mPendingCards.remove(i);
+                dispatchChangeStarting(mExpansions.get(mExpansionCards.indexOf(card)), true);
+                card.startPreparedExpansion();
+            }
+            if (mExpansions.isEmpty()) {
+                finishHeldRows();
+            }
+            super.runPendingAnimations();
+        }
+
+        @Override
+        public void endAnimation(RecyclerView.ViewHolder item) {
+            int index = mExpansions.indexOf(item);
+            if (index >= 0) {
+                mExpansionCards.get(index).endRunningAnimation();
+            } else if (mHeldRows.remove(item)) {
+                dispatchAnimationFinished(item);
+            } else {
+                super.endAnimation(item);
+            }
+        }
+
+        @Override
+        public void endAnimations() {
+            mRecordedExpansions.clear();
+            for (int i = mExpansionCards.size() - 1; i >= 0; i--) {
+                mExpansionCards.get(i).endRunningAnimation();
+            }
+            finishHeldRows();
+            super.endAnimations();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return !mExpansions.isEmpty() || !mHeldRows.isEmpty() || super.isRunning();
+        }
     }
 
     @Override
@@ -415,19 +1134,36 @@ public class ExpandingCard extends FrameLayout {
         initializeRowContainer();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        // don't leave the rows below moved, or the tree observer holding on to us
+        endRunningAnimation();
+        super.onDetachedFromWindow();
+    }
+
+    private ViewGroup getListContainer() {
+        return mList != null ? mList : mRecyclerView;
+    }
+
     private void initializeRowContainer() {
         if (!mRowContainerInitialized) {
-            ViewGroup lastView = (ViewGroup) getParent();
+            // the card may be the row itself when it is the item view of a RecyclerView
+            ViewGroup lastView = this;
             while (lastView != null) {
-                if (lastView.getParent() instanceof ListView) {
+                if (lastView.getParent() instanceof ListView
+                        || lastView.getParent() instanceof RecyclerView) {
                     mRowContainer = lastView;
                     ViewUtil.addRectangularOutlineProvider(mRowContainer);
                     break;
                 }
-                lastView = (ViewGroup) lastView.getParent();
+                lastView = lastView.getParent() instanceof ViewGroup
+                        ? (ViewGroup) lastView.getParent() : null;
+            }
+            final ViewGroup list = getListContainer();
+            if (list != null) {
+                list.setClipChildren(false);
+                list.setClipToPadding(false);
             }
-            mList.setClipChildren(false);
-            mList.setClipToPadding(false);
         }
         mRowContainerInitialized = true;
     }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+/**
+ * Scrolls the list of an {@link ExpandingCard} along with its expansion, so that the expanded
+ * card ends up in view.
+ * <p>
+ * The distance is worked out once, from the height the row will have when the card is
+ * expanded, and then followed with the fraction of the card's own animation, so the list
+ * moves on the same curve as the card. Every step scrolls the list directly, once per frame,
+ * rather than posting a fling with {@link ListView#smoothScrollBy(int, int)} that lands on a
+ * later frame.
+ */
+final class ExpandingCardScroller {
+
+    private ViewGroup mList;
+    private int mDistance;
+    private int mScrolled;
+
+    /**
+     * Work out how far to scroll for an expansion that is about to start
+     *
+     * @param list   {@link ListView} or {@link RecyclerView}, null if the card isn't in one
+     * @param row    Row of the list holding the card
+     * @param growth How much taller the row will be once the card is expanded
+     */
+    void start(ViewGroup list, View row, int growth) {
+        mList = list;
+        mScrolled = 0;
+        mDistance = list != null && row != null
+                ? computeDistance(list.getHeight(), row.getTop(), row.getHeight() + growth) : 0;
+    }
+
+    /**
+     * Scroll as far as the expansion has got
+     *
+     * @param fraction Interpolated fraction of the expansion
+     */
+    void update(float fraction) {
+        if (mDistance == 0) {
+            return;
+        }
+        final int scrolled = Math.round(fraction * mDistance);
+        final int delta = scrolled - mScrolled;
+        if (delta == 0) {
+            return;
+        }
+        if (mList instanceof ListView) {
+            ((ListView) mList).scrollListBy(delta);
+        } else if (mList instanceof RecyclerView) {
+            mList.scrollBy(0, delta);
+        }
+        mScrolled = scrolled;
+    }
+
+    /**
+     * Distance to scroll a row into view, negative to scroll up
+     */
+    static int computeDistance(int listHeight, int top, int finalHeight) {
+        if (top < 0) {
+            return top; // view at top/partially visible
+        }
+        final int overflow = top + finalHeight - listHeight;
+        // never scroll the top of the row out of view to show its bottom
+        return overflow > 0 ? Math.min(overflow, top) : 0;
+    }
+}
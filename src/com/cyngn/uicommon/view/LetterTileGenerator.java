@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+
+import com.cyngn.uicommon.R;
+import com.cyngn.uicommon.view.RoundedCornerImageView.Shape;
+
+/**
+ * Generates letter tile avatars, the initials of a name over a color picked by hashing an
+ * identifier, in the shapes {@link RoundedCornerImageView} draws.
+ * <p>
+ * Rendered tiles are kept in a small LRU cache keyed by initials, color, size and shape, so a
+ * list full of placeholders only ever renders a handful of bitmaps. Where the glyphs sit
+ * within a tile of a given size is worked out once and remembered, up to a fixed number of
+ * initials and sizes.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public final class LetterTileGenerator implements ComponentCallbacks2 {
+
+    // Size of the letters relative to the tile, smaller when there are two of them
+    private static final float LETTER_TO_TILE_RATIO = 0.5f;
+    private static final float INITIALS_TO_TILE_RATIO = 0.4f;
+
+    private static final int MAX_GLYPH_OFFSETS = 256;
+
+    private static final int MAX_CACHE_BYTES = 2 * 1024 * 1024;
+
+    private static LetterTileGenerator sInstance;
+
+    private static final class TileKey {
+        long mInitials;
+        int mColor;
+        int mSize;
+        Shape mShape;
+        float mRadius;
+
+        void set(long initials, int color, int size, Shape shape, float radius) {
+            mInitials = initials;
+            mColor = color;
+            mSize = size;
+            mShape = shape;
+            // Circles don't have a radius of their own
+            mRadius = shape == Shape.CIRCLE ? 0 : radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            final TileKey other = (TileKey) o;
+            return mInitials == other.mInitials && mColor == other.mColor
+                    && mSize == other.mSize && mShape == other.mShape
+                    && mRadius == other.mRadius;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mInitials ^ (mInitials >>> 32));
+            result = 31 * result + mColor;
+            result = 31 * result + mSize;
+            result = 31 * result + mShape.ordinal();
+            return 31 * result + Float.floatToIntBits(mRadius);
+        }
+    }
+
+    private final Resources mResources;
+    private final int[] mColors;
+    private final Paint mTilePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLetterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect mGlyphBounds = new Rect();
+    private final char[] mLetters = new char[4];
+    private final TileKey mLookupKey = new TileKey();
+
+    // Glyph offsets within a tile, keyed by initials and tile size
+    private final LongSparseArray<float[]> mGlyphOffsets = new LongSparseArray<>();
+
+    private final LruCache<TileKey, Bitmap> mTiles =
+            new LruCache<TileKey, Bitmap>(MAX_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(TileKey key, Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+
+    /**
+     * Returns the process-wide generator
+     *
+     * @param context {@link android.content.Context}
+     */
+    public static LetterTileGenerator getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new LetterTileGenerator(appContext);
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private LetterTileGenerator(Context context) {
+        final Resources res = context.getResources();
+        mResources = res;
+        final TypedArray colors = res.obtainTypedArray(R.array.letter_tile_colors);
+        mColors = new int[colors.length()];
+        for (int i = 0; i < mColors.length; i++) {
+            mColors[i] = colors.getColor(i, 0);
+        }
+        colors.recycle();
+        mLetterPaint.setColor(context.getColor(R.color.letter_tile_text_color));
+        mLetterPaint.setTypeface(Typeface.create("sans-serif-medium", Typeface.NORMAL));
+    }
+
+    /**
+     * Returns the tile for a contact
+     *
+     * @param displayName Name to take the initials from, the first letters of its first and
+     *                    last words. The tile has no letters if it is empty or doesn't start
+     *                    with a letter or digit, and one if it is a single word.
+     * @param identifier  Stable identifier to pick the color by, e.g. a lookup key, or null to
+     *                    use the display name
+     * @param size        Width and height of the tile in pixels
+     * @param shape       {@link RoundedCornerImageView.Shape}
+     * @param radius      Corner radius of rectangles
+     * @return {@link android.graphics.Bitmap} shared with everyone else asking for the same
+     * tile, it must not be modified
+     */
+    public Bitmap getTile(String displayName, String identifier, int size, Shape shape,
+            float radius) {
+        final long initials = getInitials(displayName);
+        final int color = pickColor(identifier != null ? identifier : displayName);
+        mLookupKey.set(initials, color, size, shape, radius);
+        Bitmap tile = mTiles.get(mLookupKey);
+        if (tile == null) {
+            tile = renderTile(initials, color, size, shape, radius);
+            final TileKey key = new TileKey();
+            key.set(initials, color, size, shape, radius);
+            mTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the tile for a contact as a drawable
+     *
+     * @see #getTile(String, String, int, Shape, float)
+     */
+    public Drawable getTileDrawable(String displayName, String identifier, int size,
+            Shape shape, float radius) {
+        return new BitmapDrawable(mResources,
+                getTile(displayName, identifier, size, shape, radius));
+    }
+
+    /**
+     * Returns the initials of a name, the upper case first letter of its first word in the
+     * high half and that of its last word, if there is one, in the low half. 0 if it has none.
+     */
+    private static long getInitials(String displayName) {
+        if (TextUtils.isEmpty(displayName)) {
+            return 0;
+        }
+        final String name = displayName.trim();
+        if (name.isEmpty()) {
+            return 0;
+        }
+        final int first = name.codePointAt(0);
+        if (!Character.isLetterOrDigit(first)) {
+            return 0;
+        }
+        int last = 0;
+        // Trimmed, so a space is never the last character
+        for (int i = name.length() - 1; i > 0; i--) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                final int codePoint = name.codePointAt(i + 1);
+                if (Character.isLetterOrDigit(codePoint)) {
+                    last = Character.toUpperCase(codePoint);
+                }
+                break;
+            }
+        }
+        return ((long) Character.toUpperCase(first) << 32) | last;
+    }
+
+    private int pickColor(String identifier) {
+        if (TextUtils.isEmpty(identifier)) {
+            return mColors[mColors.length - 1];
+        }
+        return mColors[Math.abs(identifier.hashCode() % mColors.length)];
+    }
+
+    private Bitmap renderTile(long initials, int color, int size, Shape shape, float radius) {
+        final Bitmap tile = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(tile);
+        mTilePaint.setColor(color);
+        if (shape == Shape.CIRCLE) {
+            canvas.drawCircle(size / 2f, size / 2f, size / 2f, mTilePaint);
+        } else {
+            canvas.drawRoundRect(0, 0, size, size, radius, radius, mTilePaint);
+        }
+        if (initials != 0) {
+            final int last = (int) initials;
+            int length = Character.toChars((int) (initials >>> 32), mLetters, 0);
+            if (last != 0) {
+                length += Character.toChars(last, mLetters, length);
+            }
+            mLetterPaint.setTextSize(size
+                    * (last != 0 ? INITIALS_TO_TILE_RATIO : LETTER_TO_TILE_RATIO));
+            final float[] offset = getGlyphOffset(initials, length, size);
+            canvas.drawText(mLetters, 0, length, offset[0], offset[1], mLetterPaint);
+        }
+        return tile;
+    }
+
+    /**
+     * Where to draw the letters in {@link #mLetters} so that their glyphs, not their advance
+     * and line height, are centered within a tile of the given size. The letter paint must
+     * already be set up for the tile.
+     */
+    private float[] getGlyphOffset(long initials, int length, int size) {
+        // Code points take up to 21 bits each, which leaves 22 bits for the size
+        final long key = (initials >>> 32) << 43 | (initials & 0xFFFFFFFFL) << 22
+                | (size & 0x3FFFFF);
+        float[] offset = mGlyphOffsets.get(key);
+        if (offset == null) {
+            mLetterPaint.getTextBounds(mLetters, 0, length, mGlyphBounds);
+            offset = new float[] {
+                    (size - mGlyphBounds.width()) / 2f - mGlyphBounds.left,
+                    (size - mGlyphBounds.height()) / 2f - mGlyphBounds.top
+            };
+            if (mGlyphOffsets.size() >= MAX_GLYPH_OFFSETS) {
+                // Lots of different initials and sizes, start over rather than grow forever
+                mGlyphOffsets.clear();
+            }
+            mGlyphOffsets.put(key, offset);
+        }
+        return offset;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        final int size = TrimLevels.trimmedSize(level, mTiles.maxSize());
+        mTiles.trimToSize(size);
+        if (size < mTiles.maxSize()) {
+            mGlyphOffsets.clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mTiles.evictAll();
+        mGlyphOffsets.clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // empty
+    }
+}
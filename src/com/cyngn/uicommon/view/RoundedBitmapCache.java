@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Process-wide, memory bounded cache of images that have already been rounded by a
+ * {@link RoundedCornerImageView}, so that the same image shown in many views at the same size
+ * and shape is only masked once.
+ * <p>
+ * The cache is sized from the memory class of the device and shrinks or empties itself in
+ * response to {@link ComponentCallbacks2#onTrimMemory(int)}. Every cached bitmap holds a
+ * {@link BitmapPool} reference, which is released when it is evicted.
+ */
+public final class RoundedBitmapCache implements ComponentCallbacks2 {
+
+    // Fraction of the app's memory class to spend on rounded bitmaps
+    private static final int MEMORY_CLASS_DIVISOR = 16;
+
+    private static RoundedBitmapCache sInstance;
+
+    /**
+     * Identifies a rounded rendering of a source image. Two keys are equal when the same source
+     * is rounded to the same size, placement and shape.
+     */
+    public static final class Key {
+        private final Object mSource;
+        private final int[] mGeometry;
+        private final float mRadius;
+        private final int mHashCode;
+
+        /**
+         * @param source   Identity of the source image, e.g. its bitmap generation id or uri
+         * @param geometry Size, padding, scale type, shape, corner mask and inset of the output
+         * @param radius   Corner radius of the output
+         */
+        Key(Object source, int[] geometry, float radius) {
+            mSource = source;
+            mGeometry = geometry;
+            mRadius = radius;
+            mHashCode = 31 * (31 * source.hashCode() + Arrays.hashCode(geometry))
+                    + Float.floatToIntBits(radius);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode && mRadius == other.mRadius
+                    && mSource.equals(other.mSource) && Arrays.equals(mGeometry, other.mGeometry);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private final LruCache<Key, Bitmap> mCache;
+    private final BitmapPool mPool;
+
+    /**
+     * Returns the process-wide cache
+     *
+     * @param context {@link android.content.Context}
+     */
+    public static synchronized RoundedBitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final ActivityManager am =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new RoundedBitmapCache(
+                    am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR,
+                    BitmapPool.getInstance(appContext));
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private RoundedBitmapCache(int maxBytes, BitmapPool pool) {
+        mPool = pool;
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue,
+                    Bitmap newValue) {
+                mPool.release(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Look up a rounded bitmap and take a {@link BitmapPool} reference to it, which the caller
+     * must release when done with it. Taking the reference here means the bitmap can't be
+     * evicted and reused in between.
+     *
+     * @return {@link android.graphics.Bitmap} or null if there is none for the key
+     */
+    synchronized Bitmap acquire(Key key) {
+        final Bitmap bitmap = mCache.get(key);
+        mPool.acquire(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Cache a rounded bitmap, the cache takes its own {@link BitmapPool} reference to it
+     */
+    synchronized void put(Key key, Bitmap bitmap) {
+        mPool.acquire(bitmap);
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * Drop every cached bitmap
+     */
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        mCache.trimToSize(TrimLevels.trimmedSize(level, mCache.maxSize()));
+    }
+
+    @Override
+    public synchronized void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // empty
+    }
+}
@@ -17,33 +17,54 @@ package com.cyngn.uicommon.view;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.util.AttributeSet;
+import android.view.ViewOutlineProvider;
 import android.widget.ImageView;
 
 import com.cyngn.uicommon.R;
 
+import java.util.Arrays;
+
 /**
  * RoundedCornerImageView
  * <pre>
  *
  *     Image view that allows you to manipulate the corners by rounding them using a given radius.
- *     This image view has limitations as defined below:
- *     - [roundTopLeft] + [roundTopRight] + [roundBottomLeft] = all 4 corners rounded
- *     - Rounding 2 diagonally rounds all 4 ([roundTopLeft] + [roundBottomRight] = all 4 corners rounded)
+ *     Each corner is rounded independently, and {@link #setCornerRadii} gives each its own radius.
  *
  *     Example usage:
  *      roundBottomLeft="true"
  *      roundBottomRight="true"
  *
- *     This will give us the result of rounding 2 bottom corners.
+ *     This will give us the result of rounding 2 bottom corners. Without any of the corner
+ *     flags, all 4 corners are rounded.
+ *
+ *     Render modes:
+ *      layer  - (default) draws the image into an offscreen layer and masks it, works for
+ *               any drawable
+ *      shader - draws bitmap images with a single rounded shape through a BitmapShader,
+ *               without any offscreen layers. Other drawables fall back to the layer mode.
+ *      outline - clips the view to its outline on the render thread, for circles and for
+ *               rectangles with all 4 corners rounded. Other corner combinations fall back
+ *               to the shader mode.
+ *      cached - rounds bitmap images once into the process-wide {@link RoundedBitmapCache}
+ *               and draws the result, so views showing the same image at the same size share
+ *               the work. Other drawables fall back to the layer mode.
  *
  * </pre>
  *
@@ -60,6 +81,12 @@ public class RoundedCornerImageView extends ImageView {
         CIRCLE
     }
 
+    // Render modes
+    public static final int RENDER_MODE_LAYER = 0;
+    public static final int RENDER_MODE_SHADER = 1;
+    public static final int RENDER_MODE_OUTLINE = 2;
+    public static final int RENDER_MODE_CACHED = 3;
+
     // Constants
     public static final String TAG = RoundedCornerImageView.class.getSimpleName();
     public static final float DEFAULT_RECTANGLE_RADIUS = 5.0f;
@@ -81,19 +108,72 @@ public class RoundedCornerImageView extends ImageView {
         sRestorePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_ATOP));
     }
 
-    // Members
+    // Members, the bounds are our padded content bounds and only change with size or padding
     private final Rect mBounds = new Rect();
     private final RectF mBoundsF = new RectF();
     private float mRadius = DEFAULT_RECTANGLE_RADIUS;
     private Shape mShape = Shape.RECTANGLE;
+    private int mRenderMode = RENDER_MODE_LAYER;
+
+    // Radii of the top left, top right, bottom right and bottom left corners when rounded
+    private final float[] mCornerRadii = {
+            DEFAULT_RECTANGLE_RADIUS, DEFAULT_RECTANGLE_RADIUS,
+            DEFAULT_RECTANGLE_RADIUS, DEFAULT_RECTANGLE_RADIUS
+    };
+
+    // Rectangle mask, only rebuilt when the size or the corners change
+    private final Path mMaskPath = new Path();
+    private final float[] mMaskRadii = new float[8];
+    // Circle mask radius, the shape radius less the border and ring gap
+    private float mMaskRadius;
 
-    // Flags
-    private boolean mRoundTopLeft = false;
-    private boolean mRoundTopRight = false;
-    private boolean mRoundBottomLeft = false;
-    private boolean mRoundBottomRight = false;
+    // Border, ring gap and badge, drawn in the same pass as the image
+    private final Paint mBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path mBorderPath = new Path();
+    private final float[] mBorderRadii = new float[8];
+    private float mBorderWidth;
+    private float mRingGap;
+    private Drawable mBadge;
+
+    // Shader rendering, the matrix is only recomputed when the drawable or its placement changes
+    private final Paint mShaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Matrix mShaderMatrix = new Matrix();
+    private final RectF mShaderImageBounds = new RectF();
+    private Drawable mShaderDrawable;
+    private Bitmap mShaderBitmap;
+    private boolean mShaderDirty = true;
+
+    // Cached rendering, the rounded bitmap is only looked up again when its key may have changed
+    private final Paint mCachedPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Bitmap mCachedBitmap;
+    private int mCachedGenerationId;
+    private boolean mCacheDirty = true;
+
+    // Asynchronously bound image, rounded off the main thread and drawn in place of a drawable
+    private Object mAsyncSource;
+    private RoundedImageLoader.Request mAsyncRequest;
+    private Bitmap mAsyncBitmap;
+    private final Runnable mAsyncRequestRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestAsyncImage();
+        }
+    };
+
+    // Whether we are currently being clipped by our outline rather than drawing the mask
+    private boolean mClippingToOutline = false;
+
+    // Flags, all corners are rounded unless some are picked
+    private boolean mRoundTopLeft = true;
+    private boolean mRoundTopRight = true;
+    private boolean mRoundBottomLeft = true;
+    private boolean mRoundBottomRight = true;
     private boolean mClampLayoutToAspectRatio = false;
 
+    // Clamp for the current drawable
+    private float mClampAspectRatio = DEFAULT_ASPECT_RATIO;
+    private ScaleType mClampScaleType = ScaleType.FIT_XY;
+
     /**
      * Constructor
      *
@@ -126,20 +206,39 @@ public class RoundedCornerImageView extends ImageView {
         if (attrs != null) {
             TypedArray a = context.obtainStyledAttributes(attrs,
                     R.styleable.RoundedCornerImageView, defStyle, 0);
-            mRoundTopLeft = a.getBoolean(R.styleable.RoundedCornerImageView_roundTopLeft, false);
-            mRoundTopRight = a.getBoolean(R.styleable.RoundedCornerImageView_roundTopRight, false);
+            // Only a radius rounds all corners, as it always has. Once any corner is picked the
+            // others are left square unless they are picked too
+            final boolean roundAll = !a.hasValue(R.styleable.RoundedCornerImageView_roundTopLeft)
+                    && !a.hasValue(R.styleable.RoundedCornerImageView_roundTopRight)
+                    && !a.hasValue(R.styleable.RoundedCornerImageView_roundBottomLeft)
+                    && !a.hasValue(R.styleable.RoundedCornerImageView_roundBottomRight);
+            mRoundTopLeft = a.getBoolean(R.styleable.RoundedCornerImageView_roundTopLeft,
+                    roundAll);
+            mRoundTopRight = a.getBoolean(R.styleable.RoundedCornerImageView_roundTopRight,
+                    roundAll);
             mRoundBottomLeft = a.getBoolean(R.styleable.RoundedCornerImageView_roundBottomLeft,
-                    false);
+                    roundAll);
             mRoundBottomRight = a.getBoolean(R.styleable.RoundedCornerImageView_roundBottomRight,
-                    false);
+                    roundAll);
             int shapeId = a.getInt(R.styleable.RoundedCornerImageView_shape, SHAPE_ID_RECTANGLE);
             mShape = (shapeId != 2) ? Shape.RECTANGLE : Shape.CIRCLE;
             float defaultRadius =
                     (mShape == Shape.CIRCLE) ? DEFAULT_CIRCLE_RADIUS : DEFAULT_RECTANGLE_RADIUS;
             mRadius = a.getDimensionPixelSize(R.styleable.RoundedCornerImageView_radius,
                     (int) defaultRadius);
+            Arrays.fill(mCornerRadii, mRadius);
+            mRenderMode = a.getInt(R.styleable.RoundedCornerImageView_renderMode,
+                    RENDER_MODE_LAYER);
+            mBorderWidth = a.getDimension(R.styleable.RoundedCornerImageView_borderWidth, 0);
+            mBorderPaint.setColor(a.getColor(R.styleable.RoundedCornerImageView_borderColor,
+                    Color.WHITE));
+            mRingGap = a.getDimension(R.styleable.RoundedCornerImageView_ringGap, 0);
+            setBadge(a.getDrawable(R.styleable.RoundedCornerImageView_badge));
             a.recycle();
         }
+        mBorderPaint.setStyle(Paint.Style.STROKE);
+        mBorderPaint.setStrokeWidth(mBorderWidth);
+        onShapeChanged();
     }
 
     /**
@@ -150,10 +249,386 @@ public class RoundedCornerImageView extends ImageView {
     @Override
     public void setScaleType(ScaleType scaleType) {
         if (mClampLayoutToAspectRatio) {
-            super.setScaleType(ScaleType.FIT_XY);
-        } else {
+            scaleType = mClampScaleType;
+        }
+        if (scaleType != getScaleType()) {
             super.setScaleType(scaleType);
+            mShaderDirty = true;
+            mCacheDirty = true;
+            scheduleAsyncRequest();
+        }
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        clearAsyncImage();
+        updateRatioClamp();
+        mShaderDirty = true;
+        mCacheDirty = true;
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        super.setImageResource(resId);
+        clearAsyncImage();
+        updateRatioClamp();
+        mShaderDirty = true;
+        mCacheDirty = true;
+    }
+
+    @Override
+    public void setImageURI(Uri uri) {
+        super.setImageURI(uri);
+        clearAsyncImage();
+        updateRatioClamp();
+        mShaderDirty = true;
+        mCacheDirty = true;
+    }
+
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        super.setImageMatrix(matrix);
+        mShaderDirty = true;
+        mCacheDirty = true;
+    }
+
+    @Override
+    public void setPadding(int left, int top, int right, int bottom) {
+        super.setPadding(left, top, right, bottom);
+        mShaderDirty = true;
+        onShapeChanged();
+    }
+
+    @Override
+    public void setPaddingRelative(int start, int top, int end, int bottom) {
+        super.setPaddingRelative(start, top, end, bottom);
+        mShaderDirty = true;
+        onShapeChanged();
+    }
+
+    @Override
+    protected boolean setFrame(int l, int t, int r, int b) {
+        final boolean changed = super.setFrame(l, t, r, b);
+        if (changed) {
+            mShaderDirty = true;
+            mCacheDirty = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Scale and round the given bitmap on a background thread and show it when done. The view
+     * is not measured around the image, so it should get its size from its layout params. Any
+     * image set afterwards replaces this one.
+     *
+     * @param bitmap {@link android.graphics.Bitmap}
+     */
+    public void setImageBitmapAsync(Bitmap bitmap) {
+        bindAsyncImage(bitmap);
+    }
+
+    /**
+     * Decode, scale and round the image at the given uri on a background thread and show it
+     * when done. The view is not measured around the image, so it should get its size from its
+     * layout params. Any image set afterwards replaces this one.
+     *
+     * @param uri {@link android.net.Uri}
+     */
+    public void setImageURIAsync(Uri uri) {
+        bindAsyncImage(uri);
+    }
+
+    private void bindAsyncImage(Object source) {
+        // Drops the current image and cancels any request still in flight
+        setImageDrawable(null);
+        mAsyncSource = source;
+        scheduleAsyncRequest();
+    }
+
+    private void clearAsyncImage() {
+        removeCallbacks(mAsyncRequestRunnable);
+        cancelAsyncRequest();
+        mAsyncSource = null;
+        setAsyncBitmap(null);
+    }
+
+    /**
+     * Show a rounded result, taking over the caller's pool reference to it
+     */
+    private void setAsyncBitmap(Bitmap rounded) {
+        if (mAsyncBitmap != rounded) {
+            releaseBitmap(mAsyncBitmap);
+            mAsyncBitmap = rounded;
+        } else {
+            releaseBitmap(rounded);
+        }
+    }
+
+    private void cancelAsyncRequest() {
+        if (mAsyncRequest != null) {
+            mAsyncRequest.cancel();
+            mAsyncRequest = null;
+        }
+    }
+
+    /**
+     * Start rounding the bound image once the current layout pass is done, so that changing
+     * the size, padding and shape together only starts one request, and rows that are bound
+     * and recycled within the same frame don't queue anything
+     */
+    private void scheduleAsyncRequest() {
+        if (mAsyncSource == null) {
+            return;
+        }
+        removeCallbacks(mAsyncRequestRunnable);
+        post(mAsyncRequestRunnable);
+    }
+
+    /**
+     * Start rounding the bound image for the current geometry, unless it is already cached.
+     * The previous result stays visible until the new one arrives.
+     */
+    private void requestAsyncImage() {
+        cancelAsyncRequest();
+        final int width = getWidth();
+        final int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final Object source = mAsyncSource;
+        final RoundedBitmapCache.Key key = new RoundedBitmapCache.Key(
+                source instanceof Bitmap ? ((Bitmap) source).getGenerationId() : source,
+                new int[] {
+                        width, height,
+                        getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom(),
+                        getScaleType().ordinal(), mShape.ordinal(),
+                        Float.floatToIntBits(mMaskRadii[0]), Float.floatToIntBits(mMaskRadii[2]),
+                        Float.floatToIntBits(mMaskRadii[4]), Float.floatToIntBits(mMaskRadii[6]),
+                        Float.floatToIntBits(mBorderWidth + mRingGap)
+                }, mMaskRadius);
+        final Bitmap cached = RoundedBitmapCache.getInstance(getContext()).acquire(key);
+        if (cached != null) {
+            setAsyncBitmap(cached);
+            invalidate();
+            return;
+        }
+        mAsyncRequest = RoundedImageLoader.load(this, source, key, mShape, mBoundsF,
+                mMaskRadius, mMaskPath);
+    }
+
+    void onAsyncImageLoaded(RoundedImageLoader.Request request, Bitmap rounded) {
+        if (request != mAsyncRequest) {
+            releaseBitmap(rounded);
+            return;
+        }
+        mAsyncRequest = null;
+        setAsyncBitmap(rounded);
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Our rounded image was given back when we were detached
+        scheduleAsyncRequest();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // Give our rounded bitmaps back to the pool, and start over from the cache if we are
+        // drawn again without being rebound
+        removeCallbacks(mAsyncRequestRunnable);
+        cancelAsyncRequest();
+        setAsyncBitmap(null);
+        setCachedBitmap(null);
+        mCacheDirty = true;
+    }
+
+    private void releaseBitmap(Bitmap bitmap) {
+        if (bitmap != null) {
+            BitmapPool.getInstance(getContext()).release(bitmap);
+        }
+    }
+
+    /**
+     * Set how the rounded image is drawn
+     *
+     * @param renderMode {@link #RENDER_MODE_LAYER}, {@link #RENDER_MODE_SHADER},
+     *                   {@link #RENDER_MODE_OUTLINE} or {@link #RENDER_MODE_CACHED}
+     */
+    public void setRenderMode(int renderMode) {
+        if (mRenderMode != renderMode) {
+            mRenderMode = renderMode;
+            onShapeChanged();
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        onShapeChanged();
+    }
+
+    /**
+     * Whether the current shape can be expressed as an outline. A circle needs a radius that
+     * covers the view, a rectangle needs all 4 corners rounded by the same radius. Outlines
+     * cover the whole view, so there can't be any padding to mask within.
+     */
+    private boolean canClipToOutline() {
+        // The outline would cut off a badge, and can't leave a gap for a ring
+        if (mBadge != null || mBorderWidth + mRingGap > 0) {
+            return false;
+        }
+        if (getPaddingLeft() != 0 || getPaddingTop() != 0 || getPaddingRight() != 0
+                || getPaddingBottom() != 0) {
+            return false;
+        }
+        if (mShape == Shape.CIRCLE) {
+            // The outline is always the inscribed circle, which only matches the other modes
+            // when that is the circle asked for
+            return mRadius * 2 == Math.min(getWidth(), getHeight());
+        }
+        return mMaskRadii[0] > 0 && mMaskRadii[0] == mMaskRadii[2]
+                && mMaskRadii[0] == mMaskRadii[4] && mMaskRadii[0] == mMaskRadii[6];
+    }
+
+    private void onShapeChanged() {
+        mCacheDirty = true;
+        updateMaskPath();
+        updateOutline();
+        scheduleAsyncRequest();
+    }
+
+    /**
+     * Rebuild the mask for the current size, padding and corners
+     */
+    private void updateMaskPath() {
+        mBounds.set(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(),
+                getHeight() - getPaddingBottom());
+        mBoundsF.set(mBounds);
+
+        // The image is inset by the border and ring gap, the border is stroked along the edge
+        final float inset = mBorderWidth + mRingGap;
+        final float halfBorder = mBorderWidth / 2;
+        setMaskRadius(0, mRoundTopLeft, mCornerRadii[0], inset, halfBorder);
+        setMaskRadius(1, mRoundTopRight, mCornerRadii[1], inset, halfBorder);
+        setMaskRadius(2, mRoundBottomRight, mCornerRadii[2], inset, halfBorder);
+        setMaskRadius(3, mRoundBottomLeft, mCornerRadii[3], inset, halfBorder);
+        mMaskRadius = Math.max(0, mRadius - inset);
+        mMaskPath.reset();
+        mBorderPath.reset();
+        if (mShape == Shape.RECTANGLE) {
+            mMaskPath.addRoundRect(mBoundsF.left + inset, mBoundsF.top + inset,
+                    mBoundsF.right - inset, mBoundsF.bottom - inset, mMaskRadii,
+                    Path.Direction.CW);
+            if (mBorderWidth > 0) {
+                mBorderPath.addRoundRect(mBoundsF.left + halfBorder, mBoundsF.top + halfBorder,
+                        mBoundsF.right - halfBorder, mBoundsF.bottom - halfBorder, mBorderRadii,
+                        Path.Direction.CW);
+            }
+        }
+        updateBadgeBounds();
+    }
+
+    private void setMaskRadius(int corner, boolean rounded, float radius, float inset,
+            float halfBorder) {
+        final float r = rounded ? Math.max(0, radius - inset) : 0;
+        mMaskRadii[corner * 2] = r;
+        mMaskRadii[corner * 2 + 1] = r;
+        final float borderRadius = rounded ? Math.max(0, radius - halfBorder) : 0;
+        mBorderRadii[corner * 2] = borderRadius;
+        mBorderRadii[corner * 2 + 1] = borderRadius;
+    }
+
+    /**
+     * Sit the badge on the bottom right of the shape, without letting it leave the view
+     */
+    private void updateBadgeBounds() {
+        if (mBadge == null) {
+            return;
+        }
+        final int width = Math.max(mBadge.getIntrinsicWidth(), 0);
+        final int height = Math.max(mBadge.getIntrinsicHeight(), 0);
+        float centerX = mBoundsF.right - width / 2f;
+        float centerY = mBoundsF.bottom - height / 2f;
+        if (mShape == Shape.CIRCLE) {
+            // On the edge of the circle, half way between the right and the bottom
+            final float offset = mRadius * (float) Math.sqrt(0.5);
+            centerX = Math.min(centerX, mBoundsF.centerX() + offset);
+            centerY = Math.min(centerY, mBoundsF.centerY() + offset);
+        }
+        final int left = Math.round(centerX - width / 2f);
+        final int top = Math.round(centerY - height / 2f);
+        mBadge.setBounds(left, top, left + width, top + height);
+    }
+
+    /**
+     * Draw a border of the given width along the edge of the shape. The image is inset so
+     * it isn't drawn under the border.
+     *
+     * @param width {@link java.lang.Float} 0 for no border
+     * @param color {@link java.lang.Integer}
+     */
+    public void setBorder(float width, int color) {
+        mBorderWidth = width;
+        mBorderPaint.setStrokeWidth(width);
+        mBorderPaint.setColor(color);
+        onShapeChanged();
+    }
+
+    /**
+     * Leave a transparent gap between the image and its border, turning the border into a
+     * ring around the image
+     *
+     * @param gap {@link java.lang.Float}
+     */
+    public void setRingGap(float gap) {
+        mRingGap = gap;
+        onShapeChanged();
+    }
+
+    /**
+     * Draw a badge over the bottom right of the shape, e.g. a presence indicator
+     *
+     * @param badge {@link android.graphics.drawable.Drawable} or null for no badge
+     */
+    public void setBadge(Drawable badge) {
+        if (mBadge == badge) {
+            return;
+        }
+        if (mBadge != null) {
+            mBadge.setCallback(null);
+        }
+        mBadge = badge;
+        if (badge != null) {
+            badge.setCallback(this);
+        }
+        onShapeChanged();
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mBadge || super.verifyDrawable(who);
+    }
+
+    private void updateOutline() {
+        if (mRenderMode == RENDER_MODE_OUTLINE && canClipToOutline()) {
+            if (mShape == Shape.CIRCLE) {
+                ViewUtil.addCircularOutlineProvider(this);
+            } else {
+                ViewUtil.addRoundRectOutlineProvider(this, mMaskRadii[0]);
+            }
+            setClipToOutline(true);
+            mClippingToOutline = true;
+        } else if (mClippingToOutline) {
+            setClipToOutline(false);
+            setOutlineProvider(ViewOutlineProvider.BACKGROUND);
+            mClippingToOutline = false;
         }
+        invalidate();
     }
 
     /**
@@ -162,10 +637,42 @@ public class RoundedCornerImageView extends ImageView {
      * @param enabled {@link java.lang.Boolean}
      */
     public void setLayoutToRatioClampEnabled(boolean enabled) {
-        mClampLayoutToAspectRatio = enabled;
-        if (mClampLayoutToAspectRatio) {
-            setScaleType(ScaleType.FIT_XY);
+        if (mClampLayoutToAspectRatio != enabled) {
+            mClampLayoutToAspectRatio = enabled;
+            updateRatioClamp();
+            requestLayout();
+        }
+    }
+
+    /**
+     * Work out the aspect ratio and scale type to clamp to for the current drawable, so that
+     * measuring doesn't need to look at the drawable or change the scale type
+     */
+    private void updateRatioClamp() {
+        if (!mClampLayoutToAspectRatio) {
+            return;
+        }
+        Drawable drawable = getDrawable();
+        float aspectRatio = DEFAULT_ASPECT_RATIO;
+        ScaleType scaleType = ScaleType.FIT_XY;
+        // If we have one, calculate the aspect ratio
+        if (drawable != null) {
+            // Set the drawable aspect ratio
+            float dWidth = drawable.getIntrinsicWidth();
+            float dHeight = drawable.getIntrinsicHeight();
+            // If portrait
+            if (dHeight > dWidth) {
+                // Don't change aspect ratio
+                // Force center cropping
+                scaleType = ScaleType.CENTER_CROP;
+            } else {
+                // Invert teh ratios
+                aspectRatio = dHeight / dWidth;
+            }
         }
+        mClampAspectRatio = aspectRatio;
+        mClampScaleType = scaleType;
+        setScaleType(scaleType);
     }
 
     /**
@@ -175,6 +682,7 @@ public class RoundedCornerImageView extends ImageView {
      */
     public void setRoundedTopLeft(boolean rounded) {
         mRoundTopLeft = rounded;
+        onShapeChanged();
     }
 
     /**
@@ -184,6 +692,7 @@ public class RoundedCornerImageView extends ImageView {
      */
     public void setRoundedTopRight(boolean rounded) {
         mRoundTopRight = rounded;
+        onShapeChanged();
     }
 
     /**
@@ -193,6 +702,7 @@ public class RoundedCornerImageView extends ImageView {
      */
     public void setRoundedBottomLeft(boolean rounded) {
         mRoundBottomLeft = rounded;
+        onShapeChanged();
     }
 
     /**
@@ -202,6 +712,7 @@ public class RoundedCornerImageView extends ImageView {
      */
     public void setRoundedBottomRight(boolean rounded) {
         mRoundBottomRight = rounded;
+        onShapeChanged();
     }
 
     /**
@@ -211,6 +722,29 @@ public class RoundedCornerImageView extends ImageView {
      */
     public void setRadius(float radius) {
         mRadius = radius;
+        Arrays.fill(mCornerRadii, radius);
+        onShapeChanged();
+    }
+
+    /**
+     * Round each corner by its own radius, a radius of 0 leaves the corner square
+     *
+     * @param topLeft     {@link java.lang.Float}
+     * @param topRight    {@link java.lang.Float}
+     * @param bottomRight {@link java.lang.Float}
+     * @param bottomLeft  {@link java.lang.Float}
+     */
+    public void setCornerRadii(float topLeft, float topRight, float bottomRight,
+            float bottomLeft) {
+        mCornerRadii[0] = topLeft;
+        mCornerRadii[1] = topRight;
+        mCornerRadii[2] = bottomRight;
+        mCornerRadii[3] = bottomLeft;
+        mRoundTopLeft = topLeft > 0;
+        mRoundTopRight = topRight > 0;
+        mRoundBottomRight = bottomRight > 0;
+        mRoundBottomLeft = bottomLeft > 0;
+        onShapeChanged();
     }
 
     /**
@@ -223,6 +757,8 @@ public class RoundedCornerImageView extends ImageView {
         if (shape == null) throw new IllegalArgumentException("'shape' cannot be null!");
         mShape = shape;
         mRadius = (mShape == Shape.CIRCLE) ? DEFAULT_CIRCLE_RADIUS : DEFAULT_RECTANGLE_RADIUS;
+        Arrays.fill(mCornerRadii, mRadius);
+        onShapeChanged();
     }
 
     /**
@@ -240,31 +776,9 @@ public class RoundedCornerImageView extends ImageView {
             return;
         }
 
-        // Ensure scale type
-        setScaleType(ScaleType.FIT_XY);
-
-        // Check the drawable
-        Drawable drawable = getDrawable();
-        float aspectRatio = DEFAULT_ASPECT_RATIO;
-        // If we have one, calculate the aspect ratio
-        if (drawable != null) {
-            // Set the drawable aspect ratio
-            float dWidth = drawable.getIntrinsicWidth();
-            float dHeight = drawable.getIntrinsicHeight();
-            // If portrait
-            if (dHeight > dWidth) {
-                // Don't change aspect ratio
-                // Force center cropping
-                super.setScaleType(ScaleType.CENTER_CROP);
-            } else {
-                // Invert teh ratios
-                aspectRatio = dHeight / dWidth;
-            }
-        }
-
-        // Get new dimensions
+        // Get new dimensions, the ratio is worked out when the drawable is set
         int originWidth = MeasureSpec.getSize(widthMeasureSpec);
-        int calcHeight = (int) ((float) originWidth * aspectRatio);
+        int calcHeight = (int) ((float) originWidth * mClampAspectRatio);
 
         // Measure views
         super.onMeasure(MeasureSpec.makeMeasureSpec(originWidth, MeasureSpec.EXACTLY),
@@ -280,29 +794,211 @@ public class RoundedCornerImageView extends ImageView {
      */
     @Override
     protected void onDraw(Canvas canvas) {
-        canvas.getClipBounds(mBounds);
-        if (mShape == Shape.CIRCLE) {
-            mBoundsF.set(mBounds);
-        } else {
-            float topOffset = (mRoundTopLeft || mRoundTopRight) ? 0 : DEFAULT_RECTANGLE_RADIUS;
-            float bottomOffset =
-                    (mRoundBottomLeft || mRoundBottomRight) ? 0 : DEFAULT_RECTANGLE_RADIUS;
-            float leftOffset = (mRoundBottomLeft) ? 0 : DEFAULT_RECTANGLE_RADIUS;
-            float rightOffset = (mRoundBottomRight) ? 0 : DEFAULT_RECTANGLE_RADIUS;
-            mBoundsF.set(mBounds.left - leftOffset, mBounds.top - topOffset, mBounds.right +
-                    rightOffset, mBounds.bottom + bottomOffset);
+        drawImage(canvas);
+
+        if (mBorderWidth > 0) {
+            if (mShape == Shape.CIRCLE) {
+                canvas.drawCircle(mBoundsF.centerX(), mBoundsF.centerY(),
+                        mRadius - mBorderWidth / 2, mBorderPaint);
+            } else {
+                canvas.drawPath(mBorderPath, mBorderPaint);
+            }
+        }
+        if (mBadge != null) {
+            mBadge.draw(canvas);
+        }
+    }
+
+    private void drawImage(Canvas canvas) {
+        if (mAsyncSource != null) {
+            if (mAsyncBitmap != null) {
+                canvas.drawBitmap(mAsyncBitmap, 0, 0, null);
+            }
+            return;
         }
+
+        if (mClippingToOutline) {
+            // The render thread does the clipping for us
+            super.onDraw(canvas);
+            return;
+        }
+
+        if (mRenderMode == RENDER_MODE_CACHED) {
+            final Bitmap rounded = getCachedRoundedBitmap();
+            if (rounded != null) {
+                final Drawable drawable = getDrawable();
+                mCachedPaint.setAlpha(drawable.getAlpha());
+                mCachedPaint.setColorFilter(drawable.getColorFilter());
+                canvas.drawBitmap(rounded, 0, 0, mCachedPaint);
+                return;
+            }
+        }
+
+        if (mRenderMode != RENDER_MODE_LAYER && prepareShader()) {
+            drawShaderShape(canvas);
+            return;
+        }
+
         canvas.saveLayer(mBoundsF, sRestorePaint, Canvas.ALL_SAVE_FLAG);
         super.onDraw(canvas);
         canvas.saveLayer(mBoundsF, sMaskXferPaint, Canvas.ALL_SAVE_FLAG);
         canvas.drawARGB(0, 0, 0, 0);
-        if (mShape == Shape.CIRCLE) {
-            canvas.drawCircle(mBounds.centerX(), mBounds.centerY(), mRadius, sCanvasPaint);
-        } else {
-            canvas.drawRoundRect(mBoundsF, mRadius, mRadius, sCanvasPaint);
-        }
+        drawShape(canvas, sCanvasPaint);
         canvas.restore();
         canvas.restore();
     }
 
+    /**
+     * Look up, or render and cache, the rounded image for the current drawable and geometry
+     *
+     * @return {@link android.graphics.Bitmap} or null if the drawable can't be cached
+     */
+    private Bitmap getCachedRoundedBitmap() {
+        final Drawable drawable = getDrawable();
+        final Bitmap bitmap = drawable instanceof BitmapDrawable
+                ? ((BitmapDrawable) drawable).getBitmap() : null;
+        final int width = getWidth();
+        final int height = getHeight();
+        if (bitmap == null || getScaleType() == ScaleType.MATRIX || width <= 0 || height <= 0) {
+            setCachedBitmap(null);
+            return null;
+        }
+        // The pixels of a mutable bitmap may have changed under the same drawable
+        if (!mCacheDirty && mCachedBitmap != null
+                && mCachedGenerationId == bitmap.getGenerationId()) {
+            return mCachedBitmap;
+        }
+
+        final Rect drawableBounds = drawable.getBounds();
+        final RoundedBitmapCache.Key key = new RoundedBitmapCache.Key(bitmap.getGenerationId(),
+                new int[] {
+                        width, height,
+                        getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom(),
+                        drawableBounds.width(), drawableBounds.height(),
+                        getScaleType().ordinal(), mShape.ordinal(),
+                        Float.floatToIntBits(mMaskRadii[0]), Float.floatToIntBits(mMaskRadii[2]),
+                        Float.floatToIntBits(mMaskRadii[4]), Float.floatToIntBits(mMaskRadii[6]),
+                        Float.floatToIntBits(mBorderWidth + mRingGap)
+                }, mMaskRadius);
+        final RoundedBitmapCache cache = RoundedBitmapCache.getInstance(getContext());
+        Bitmap rounded = cache.acquire(key);
+        if (rounded == null) {
+            if (!prepareShader()) {
+                setCachedBitmap(null);
+                return null;
+            }
+            rounded = BitmapPool.getInstance(getContext())
+                    .obtain(width, height, Bitmap.Config.ARGB_8888);
+            // Round the raw image, alpha and color filter are applied when drawing the result
+            mShaderPaint.setAlpha(0xFF);
+            mShaderPaint.setColorFilter(null);
+            drawShaderShape(new Canvas(rounded));
+            cache.put(key, rounded);
+        }
+        setCachedBitmap(rounded);
+        mCachedGenerationId = bitmap.getGenerationId();
+        mCacheDirty = false;
+        return rounded;
+    }
+
+    /**
+     * Draw a rounded bitmap from now on, taking over the caller's pool reference to it
+     */
+    private void setCachedBitmap(Bitmap rounded) {
+        if (mCachedBitmap != rounded) {
+            releaseBitmap(mCachedBitmap);
+            mCachedBitmap = rounded;
+        } else {
+            releaseBitmap(rounded);
+        }
+    }
+
+    private void drawShape(Canvas canvas, Paint paint) {
+        drawShape(canvas, paint, mShape, mBoundsF, mMaskRadius, mMaskPath);
+    }
+
+    private void drawShaderShape(Canvas canvas) {
+        drawShaderShape(canvas, mShaderPaint, mShaderImageBounds, mShape, mBoundsF, mMaskRadius,
+                mMaskPath);
+    }
+
+    /**
+     * Draw the mask shape through a clamped bitmap shader, only where the image itself is
+     * drawn. May be called from any thread
+     *
+     * @param imageBounds Where the image lands within the view
+     * @param bounds      Bounds of a circle, also the content bounds to stay within
+     * @param path        Outline of a rectangle
+     */
+    static void drawShaderShape(Canvas canvas, Paint paint, RectF imageBounds, Shape shape,
+            RectF bounds, float radius, Path path) {
+        final int saveCount = canvas.save();
+        // Clamping smears the edge pixels over the padding, over any part of the view a scaled
+        // down image doesn't cover, and past the bounds for a circle bigger than the view
+        canvas.clipRect(bounds);
+        canvas.clipRect(imageBounds);
+        drawShape(canvas, paint, shape, bounds, radius, path);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Draw the mask shape, may be called from any thread
+     *
+     * @param bounds Bounds of a circle
+     * @param path   Outline of a rectangle
+     */
+    static void drawShape(Canvas canvas, Paint paint, Shape shape, RectF bounds, float radius,
+            Path path) {
+        if (shape == Shape.CIRCLE) {
+            canvas.drawCircle(bounds.centerX(), bounds.centerY(), radius, paint);
+        } else {
+            canvas.drawPath(path, paint);
+        }
+    }
+
+    /**
+     * Make sure the shader paint draws the current drawable where the image view would
+     *
+     * @return {@link java.lang.Boolean} false if the drawable can't be drawn through a shader
+     */
+    private boolean prepareShader() {
+        final Drawable drawable = getDrawable();
+        if (!(drawable instanceof BitmapDrawable)) {
+            return false;
+        }
+        final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (bitmap == null) {
+            return false;
+        }
+
+        if (bitmap != mShaderBitmap) {
+            mShaderPaint.setShader(
+                    new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            mShaderBitmap = bitmap;
+            mShaderDirty = true;
+        }
+        if (drawable != mShaderDrawable) {
+            mShaderDrawable = drawable;
+            mShaderDirty = true;
+        }
+
+        if (mShaderDirty) {
+            // Map the bitmap into the drawable bounds, then apply the image view's draw matrix
+            // and padding just like ImageView#onDraw does
+            final Rect bounds = drawable.getBounds();
+            mShaderMatrix.setScale(bounds.width() / (float) bitmap.getWidth(),
+                    bounds.height() / (float) bitmap.getHeight());
+            mShaderMatrix.postTranslate(bounds.left, bounds.top);
+            mShaderMatrix.postConcat(getImageMatrix());
+            mShaderMatrix.postTranslate(getPaddingLeft(), getPaddingTop());
+            mShaderPaint.getShader().setLocalMatrix(mShaderMatrix);
+            mShaderImageBounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            mShaderMatrix.mapRect(mShaderImageBounds);
+            mShaderDirty = false;
+        }
+        mShaderPaint.setAlpha(drawable.getAlpha());
+        mShaderPaint.setColorFilter(drawable.getColorFilter());
+        return true;
+    }
+
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView.ScaleType;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes, scales and rounds images for {@link RoundedCornerImageView} on a small pool of
+ * background threads, and hands the results back on the main thread.
+ * <p>
+ * Requests that are cancelled before a worker picks them up are dropped from the queue, and
+ * requests that are cancelled while running stop at the next step and are never delivered.
+ */
+final class RoundedImageLoader {
+
+    private static final String TAG = RoundedImageLoader.class.getSimpleName();
+
+    // Leave at least one core for the UI and render threads
+    private static final int POOL_SIZE =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG + " #" + mCount.incrementAndGet());
+        }
+    };
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(POOL_SIZE,
+            POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            sThreadFactory);
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private RoundedImageLoader() {}
+
+    /**
+     * A single image to be rounded for a view. Everything the workers need is captured when the
+     * request is made, so they never touch the view.
+     */
+    static final class Request implements Runnable {
+        private final RoundedCornerImageView mView;
+        private final Bitmap mBitmap;
+        private final Uri mUri;
+        private final ContentResolver mResolver;
+        private final RoundedBitmapCache mCache;
+        private final BitmapPool mPool;
+        private final RoundedBitmapCache.Key mKey;
+        private final int mWidth;
+        private final int mHeight;
+        private final RectF mContentBounds;
+        private final ScaleType mScaleType;
+        private final RoundedCornerImageView.Shape mShape;
+        private final RectF mMaskBounds;
+        private final float mRadius;
+        private final Path mMaskPath;
+        private volatile boolean mCancelled;
+
+        private Request(RoundedCornerImageView view, Object source, RoundedBitmapCache.Key key,
+                RoundedCornerImageView.Shape shape, RectF maskBounds, float radius,
+                Path maskPath) {
+            mView = view;
+            mBitmap = source instanceof Bitmap ? (Bitmap) source : null;
+            mUri = source instanceof Uri ? (Uri) source : null;
+            mResolver = view.getContext().getContentResolver();
+            mCache = RoundedBitmapCache.getInstance(view.getContext());
+            mPool = BitmapPool.getInstance(view.getContext());
+            mKey = key;
+            mWidth = view.getWidth();
+            mHeight = view.getHeight();
+            mContentBounds = new RectF(view.getPaddingLeft(), view.getPaddingTop(),
+                    mWidth - view.getPaddingRight(), mHeight - view.getPaddingBottom());
+            mScaleType = view.getScaleType();
+            mShape = shape;
+            mMaskBounds = new RectF(maskBounds);
+            mRadius = radius;
+            mMaskPath = new Path(maskPath);
+        }
+
+        /**
+         * Stop the request, its result will never be delivered
+         */
+        void cancel() {
+            mCancelled = true;
+            sExecutor.remove(this);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap source;
+            if (mBitmap != null) {
+                source = mBitmap;
+            } else if (mScaleType == ScaleType.CENTER || mScaleType == ScaleType.MATRIX) {
+                // Drawn unscaled, so any subsampling would show
+                source = BitmapDecoder.decode(mResolver, mUri, 0, 0, mPool);
+            } else {
+                source = BitmapDecoder.decode(mResolver, mUri, (int) mContentBounds.width(),
+                        (int) mContentBounds.height(), mPool);
+            }
+            if (source == null) {
+                return;
+            }
+            if (mCancelled) {
+                mPool.release(source);
+                return;
+            }
+            final Bitmap rounded = round(source);
+            // Only needed until it is rounded, so the next decode can have it. This is a no-op
+            // for bitmaps we were given
+            mPool.release(source);
+            mCache.put(mKey, rounded);
+
+            // Our own reference goes to the view, or back to the pool if the view moved on
+            if (mCancelled) {
+                mPool.release(rounded);
+                return;
+            }
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        mPool.release(rounded);
+                    } else {
+                        mView.onAsyncImageLoaded(Request.this, rounded);
+                    }
+                }
+            });
+        }
+
+        private Bitmap round(Bitmap source) {
+            final Matrix matrix = new Matrix();
+            computeDrawMatrix(mScaleType, source.getWidth(), source.getHeight(), mContentBounds,
+                    matrix);
+            final BitmapShader shader =
+                    new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            shader.setLocalMatrix(matrix);
+            final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+            paint.setShader(shader);
+
+            final RectF imageBounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+            matrix.mapRect(imageBounds);
+
+            final Bitmap rounded = mPool.obtain(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            RoundedCornerImageView.drawShaderShape(new Canvas(rounded), paint, imageBounds,
+                    mShape, mMaskBounds, mRadius, mMaskPath);
+            return rounded;
+        }
+    }
+
+    /**
+     * Queue a request to round {@code source} for {@code view} at its current size
+     *
+     * @param source     {@link android.graphics.Bitmap} or {@link android.net.Uri}
+     * @param maskBounds Bounds of a circle mask within the view
+     * @param maskPath   Outline of a rectangle mask within the view
+     */
+    static Request load(RoundedCornerImageView view, Object source, RoundedBitmapCache.Key key,
+            RoundedCornerImageView.Shape shape, RectF maskBounds, float radius, Path maskPath) {
+        final Request request =
+                new Request(view, source, key, shape, maskBounds, radius, maskPath);
+        sExecutor.execute(request);
+        return request;
+    }
+
+    /**
+     * Map an image of the given size into {@code dst} the way {@link android.widget.ImageView}
+     * would for the scale type. {@link ScaleType#MATRIX} has no image matrix to apply here, so
+     * the image is drawn unscaled.
+     */
+    static void computeDrawMatrix(ScaleType scaleType, int width, int height, RectF dst,
+            Matrix out) {
+        final float dWidth = dst.width();
+        final float dHeight = dst.height();
+        float scale;
+        switch (scaleType) {
+            case FIT_XY:
+                out.setRectToRect(new RectF(0, 0, width, height), dst, Matrix.ScaleToFit.FILL);
+                return;
+            case FIT_START:
+                out.setRectToRect(new RectF(0, 0, width, height), dst, Matrix.ScaleToFit.START);
+                return;
+            case FIT_CENTER:
+                out.setRectToRect(new RectF(0, 0, width, height), dst, Matrix.ScaleToFit.CENTER);
+                return;
+            case FIT_END:
+                out.setRectToRect(new RectF(0, 0, width, height), dst, Matrix.ScaleToFit.END);
+                return;
+            case CENTER:
+                scale = 1.0f;
+                break;
+            case CENTER_CROP:
+                scale = Math.max(dWidth / width, dHeight / height);
+                break;
+            case CENTER_INSIDE:
+                scale = Math.min(1.0f, Math.min(dWidth / width, dHeight / height));
+                break;
+            default:
+                out.setTranslate(dst.left, dst.top);
+                return;
+        }
+        out.setScale(scale, scale);
+        out.postTranslate(Math.round(dst.left + (dWidth - width * scale) * 0.5f),
+                Math.round(dst.top + (dHeight - height * scale) * 0.5f));
+    }
+}
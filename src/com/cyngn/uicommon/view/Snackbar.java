@@ -21,17 +21,29 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Rect;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.view.animation.FastOutSlowInInterpolator;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.TextUtils;
+import android.text.method.TransformationMethod;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.view.ViewParent;
 import android.view.WindowInsets;
 import android.view.animation.Interpolator;
 import android.widget.Button;
@@ -167,25 +179,40 @@ public final class Snackbar {
     private final ViewGroup mParent;
     private final Context mContext;
     private final SnackbarLayout mView;
+    private final SnackbarManager mManager;
+    // How far the view is moved up to make room for newer Snackbars below it
+    private int mStackOffset;
+    // Whether the manager has asked us to go away and we haven't been removed yet
+    private volatile boolean mDismissing;
     private int mDuration;
     private Callback mCallback;
     private WindowInsets mWindowInsets;
+    private boolean mClipRevealEnabled;
+    private final Rect mRevealClipBounds = new Rect();
+    private boolean mTextPrecomputeEnabled;
+
+    // Lifecycle timestamps, only tracked while a SnackbarMetrics listener is set
+    private long mShowRequestedAt;
+    private long mShowAnimationStartedAt;
+    private long mShownAt;
+    private long mHideAnimationStartedAt;
 
     private Snackbar(ViewGroup parent, int maxLines) {
         mParent = parent;
         mContext = parent.getContext();
 
-        LayoutInflater inflater = LayoutInflater.from(mContext);
-        mView = (SnackbarLayout) inflater.inflate(R.layout.layout_snackbar, mParent, false);
+        mView = inflateView(mContext, mParent);
         mView.setMaxLines(maxLines);
+        mView.setOnSwipeListener(mSwipeListener);
+        mView.setOnWindowVisibilityChangedListener(mWindowVisibilityListener);
+        mManager = SnackbarManager.getInstance(parent);
     }
 
     private Snackbar(ViewGroup parent, int maxLines, WindowInsets windowInsets) {
         mParent = parent;
         mContext = parent.getContext();
 
-        LayoutInflater inflater = LayoutInflater.from(mContext);
-        mView = (SnackbarLayout) inflater.inflate(R.layout.layout_snackbar, mParent, false);
+        mView = inflateView(mContext, mParent);
 
         // Apply margins equal to the system insets given, preserving the original LayoutParams
         FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) mView.getLayoutParams();
@@ -197,6 +224,20 @@ public final class Snackbar {
         mView.setVisibility(View.INVISIBLE);
         mView.setLayoutParams(layoutParams);
         mView.setMaxLines(maxLines);
+        mView.setOnSwipeListener(mSwipeListener);
+        mView.setOnWindowVisibilityChangedListener(mWindowVisibilityListener);
+        mManager = SnackbarManager.getInstance(parent);
+    }
+
+    private static SnackbarLayout inflateView(Context context, ViewGroup parent) {
+        final SnackbarMetrics.Listener metrics = SnackbarMetrics.getListener();
+        final long start = metrics != null ? SystemClock.elapsedRealtimeNanos() : 0;
+        final SnackbarLayout view = (SnackbarLayout) LayoutInflater.from(context)
+                .inflate(R.layout.layout_snackbar, parent, false);
+        if (metrics != null) {
+            metrics.onInflated((SystemClock.elapsedRealtimeNanos() - start) / 1000);
+        }
+        return view;
     }
 
     /**
@@ -306,29 +347,48 @@ public final class Snackbar {
         return make(view, view.getResources().getText(resId), duration, maxlines);
     }
 
-    private static ViewGroup findSuitableParent(View view) {
-        ViewGroup fallback = null;
-        do {
-            if (view instanceof FrameLayout) {
-                if (view.getId() == android.R.id.content) {
-                    // If we've hit the decor content view, then we didn't find a CoL in the
-                    // hierarchy, so use it.
-                    return (ViewGroup) view;
-                } else {
-                    // It's not the content view but we'll use it as our fallback
-                    fallback = (ViewGroup) view;
-                }
-            }
+    /**
+     * Register a container that all Snackbars made from views inside it should be added to.
+     *
+     * <p>Once registered, {@link #make} stops at {@code host} when looking for a parent for
+     * views inside it, rather than walking up to the window's content view. Hosts may be
+     * nested, in which case the closest one is used.
+     *
+     * @param host The container to hold Snackbar views.
+     */
+    public static void registerHostContainer(ViewGroup host) {
+        SnackbarParentResolver.registerHost(host);
+    }
 
-            if (view != null) {
-                // Else, we will loop and crawl up the view hierarchy and try to find a parent
-                final ViewParent parent = view.getParent();
-                view = parent instanceof View ? (View) parent : null;
-            }
-        } while (view != null);
+    /**
+     * Register a container that all Snackbars made from views inside it should be added to,
+     * with its own queue that shows up to {@code maxStacked} Snackbars at once.
+     *
+     * <p>Snackbars in this container are stacked on top of each other, newest at the bottom,
+     * and no longer dismiss Snackbars shown in other windows or containers.
+     *
+     * @param host       The container to hold Snackbar views.
+     * @param maxStacked The maximum number of Snackbars to show at once.
+     * @see #registerHostContainer(ViewGroup)
+     */
+    public static void registerHostContainer(ViewGroup host, int maxStacked) {
+        if (maxStacked < 1) {
+            throw new IllegalArgumentException("maxStacked must be at least 1");
+        }
+        SnackbarParentResolver.registerHost(host);
+        SnackbarManager.setScopedInstance(host, maxStacked);
+    }
 
-        // If we reach here then we didn't find a CoL or a suitable content view so we'll fallback
-        return fallback;
+    /**
+     * Unregister a container previously passed to {@link #registerHostContainer(ViewGroup)}.
+     */
+    public static void unregisterHostContainer(ViewGroup host) {
+        SnackbarParentResolver.unregisterHost(host);
+        SnackbarManager.removeScopedInstance(host);
+    }
+
+    private static ViewGroup findSuitableParent(View view) {
+        return SnackbarParentResolver.findSuitableParent(view);
     }
 
     /**
@@ -430,6 +490,41 @@ public final class Snackbar {
         return mDuration;
     }
 
+    /**
+     * Set whether a Snackbar made with {@link WindowInsets} is revealed by translating and
+     * clipping its view rather than by animating its height.
+     *
+     * <p>Animating the height lays out the Snackbar and its parent on every frame. The clip
+     * reveal lays the view out once at its full height and only animates view properties, while
+     * still appearing to grow out of the inset edge.
+     */
+    public Snackbar setClipRevealEnabled(boolean enabled) {
+        mClipRevealEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Set whether the message's text layout is computed on a background thread when this
+     * Snackbar is {@link #show() shown}, for the width of its parent.
+     *
+     * <p>The Snackbar is only queued once the layout has been computed, so the result is there
+     * to pick the Snackbar's layout when it is first measured. Computing it also warms the text
+     * shaping caches for the message, so that long or complex messages don't pay for shaping on
+     * the UI thread while the Snackbar animates in.
+     */
+    public Snackbar setTextPrecomputeEnabled(boolean enabled) {
+        mTextPrecomputeEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Set whether this Snackbar can be dismissed by swiping it horizontally. Enabled by default.
+     */
+    public Snackbar setSwipeToDismissEnabled(boolean enabled) {
+        mView.setSwipeEnabled(enabled);
+        return this;
+    }
+
     /**
      * Returns the {@link Snackbar}'s view.
      */
@@ -441,18 +536,50 @@ public final class Snackbar {
      * Show the {@link Snackbar}.
      */
     public void show() {
-        SnackbarManager.getInstance().show(mDuration, mManagerCallback);
+        if (mShowRequestedAt == 0 && SnackbarMetrics.getListener() != null) {
+            mShowRequestedAt = SystemClock.uptimeMillis();
+        }
+        if (mTextPrecomputeEnabled) {
+            mView.precomputeMessageLayout(mParent, mQueueRunnable);
+        } else {
+            mManager.show(mDuration, mManagerCallback);
+        }
     }
 
+    private final Runnable mQueueRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mManager.show(mDuration, mManagerCallback);
+        }
+    };
+
     /**
      * Dismiss the {@link Snackbar}.
      */
     public void dismiss() {
+        // Don't queue a Snackbar still waiting for its message layout
+        mView.cancelMessagePrecompute();
         dispatchDismiss(Callback.DISMISS_EVENT_MANUAL);
     }
 
     private void dispatchDismiss(@Callback.DismissEvent int event) {
-        SnackbarManager.getInstance().dismiss(mManagerCallback, event);
+        mManager.dismiss(mManagerCallback, event);
+    }
+
+    /**
+     * Pause this Snackbar's timeout, e.g. when its host is paused while its window stays
+     * visible. The timeout is also paused automatically while the Snackbar's window is hidden.
+     */
+    public void pauseTimeout() {
+        mManager.pauseTimeout(mManagerCallback, SnackbarManager.PAUSE_APP);
+    }
+
+    /**
+     * Resume a timeout paused with {@link #pauseTimeout()} for the time that was left. The
+     * timeout stays paused while the Snackbar's window is hidden.
+     */
+    public void resumeTimeout() {
+        mManager.resumeTimeout(mManagerCallback, SnackbarManager.PAUSE_APP);
     }
 
     /**
@@ -470,6 +597,14 @@ public final class Snackbar {
         return mView.isShown();
     }
 
+    /**
+     * Return whether this Snackbar is on its way out, from the moment it is dismissed until it
+     * has been removed. Showing it again in the meantime doesn't bring it back.
+     */
+    boolean isDismissing() {
+        return mDismissing;
+    }
+
     /**
      * Convenience object to contain an instance of the SnackbarManager.Callback
      * interface, so that it can be passed to a View for holding.
@@ -489,8 +624,61 @@ public final class Snackbar {
 
         @Override
         public void dismiss(int event) {
+            mDismissing = true;
             sHandler.sendMessage(sHandler.obtainMessage(MSG_DISMISS, event, 0, Snackbar.this));
         }
+
+        @Override
+        public void setStackOffset(int offset) {
+            // Translate rather than change the margin, so restacking doesn't lay out the parent
+            if (mStackOffset != offset) {
+                mView.setTranslationY(mView.getTranslationY() + mStackOffset - offset);
+                mStackOffset = offset;
+            }
+        }
+
+        @Override
+        public int getStackHeight() {
+            return mView.getParent() != null ? mView.getHeight() : 0;
+        }
+    };
+
+    private final SnackbarLayout.OnSwipeListener mSwipeListener =
+            new SnackbarLayout.OnSwipeListener() {
+        @Override
+        public void onSwipeStateChanged(boolean dragging) {
+            // Don't time out while the user is holding on to us
+            if (dragging) {
+                mManager.cancelTimeout(mManagerCallback);
+            } else {
+                mManager.restoreTimeout(mManagerCallback);
+            }
+        }
+
+        @Override
+        public void onSwipedOut() {
+            dispatchDismiss(Callback.DISMISS_EVENT_SWIPE);
+        }
+    };
+
+    private final SnackbarLayout.OnWindowVisibilityChangedListener mWindowVisibilityListener =
+            new SnackbarLayout.OnWindowVisibilityChangedListener() {
+        @Override
+        public void onWindowVisibilityChanged(boolean visible) {
+            // Messages shouldn't expire while nobody can see them
+            if (visible) {
+                mManager.resumeTimeout(mManagerCallback, SnackbarManager.PAUSE_WINDOW);
+            } else {
+                mManager.pauseTimeout(mManagerCallback, SnackbarManager.PAUSE_WINDOW);
+            }
+        }
+
+        @Override
+        public void onDetachedFromWindow() {
+            // Detaching reports the window as gone too, but there's no window coming back to
+            // resume us. Let the timeout run so that the Snackbar is still dismissed.
+            mManager.resumeTimeout(mManagerCallback, SnackbarManager.PAUSE_WINDOW);
+        }
     };
 
     final void showView() {
@@ -500,30 +688,37 @@ public final class Snackbar {
 
         if (mView.isLaidOut()) {
             // If the view is already laid out, animate it now
-            if (mWindowInsets != null) {
-                animateViewExpand();
-            } else {
-                animateViewIn();
-            }
+            startShowAnimation();
         } else {
             // Otherwise, add one of our layout change listeners and animate it in when laid out
             mView.setOnLayoutChangeListener(new SnackbarLayout.OnLayoutChangeListener() {
                 @Override
                 public void onLayoutChange(View view, int left, int top, int right, int bottom) {
-                    if (mWindowInsets != null) {
-                        animateViewExpand();
-                    } else {
-                        animateViewIn();
-                    }
+                    startShowAnimation();
                     mView.setOnLayoutChangeListener(null);
                 }
             });
         }
     }
 
+    private void startShowAnimation() {
+        if (SnackbarMetrics.getListener() != null) {
+            mShowAnimationStartedAt = SystemClock.uptimeMillis();
+        }
+        // Now that we know our height, make room for us in the stack
+        mManager.layoutStack();
+        if (mWindowInsets == null) {
+            animateViewIn();
+        } else if (mClipRevealEnabled) {
+            animateViewReveal();
+        } else {
+            animateViewExpand();
+        }
+    }
+
     private void animateViewIn() {
         mView.setTranslationY(mView.getHeight());
-        mView.animate().translationY(0f)
+        mView.animate().translationY(-mStackOffset)
                     .setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR)
                     .setDuration(ANIMATION_DURATION)
                     .setListener(new Animator.AnimatorListener() {
@@ -538,10 +733,7 @@ public final class Snackbar {
 
                         @Override
                         public void onAnimationEnd(Animator animation) {
-                            if (mCallback != null) {
-                                mCallback.onShown(Snackbar.this);
-                            }
-                            SnackbarManager.getInstance().onShown(mManagerCallback);
+                            onViewShown();
                         }
 
                         @Override
@@ -583,10 +775,7 @@ public final class Snackbar {
                 @Override
                 public void onAnimationEnd(Animator animation) {
                     super.onAnimationEnd(animation);
-                    if (mCallback != null) {
-                        mCallback.onShown(Snackbar.this);
-                    }
-                    SnackbarManager.getInstance().onShown(mManagerCallback);
+                    onViewShown();
                 }
         });
         valueAnimator.start();
@@ -599,6 +788,70 @@ public final class Snackbar {
 
     }
 
+    /**
+     * Slides the view up from its bottom edge while clipping off the part that has not been
+     * revealed yet, so it appears to grow out of the inset edge without being laid out again.
+     */
+    private void animateViewReveal() {
+        final int height = mView.getHeight();
+        final ValueAnimator valueAnimator = ValueAnimator.ofInt(height, 0);
+        valueAnimator.addUpdateListener(mRevealUpdateListener);
+        valueAnimator.setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR);
+        valueAnimator.setDuration(ANIMATION_DURATION);
+        valueAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationStart(Animator animation) {
+                mView.setVisibility(View.VISIBLE);
+                mView.animateChildrenIn(ANIMATION_DURATION - ANIMATION_FADE_DURATION,
+                        ANIMATION_FADE_DURATION);
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                mView.setClipBounds(null);
+                onViewShown();
+            }
+        });
+        // Apply the fully hidden state before the first frame is drawn
+        setRevealOffset(height);
+        valueAnimator.start();
+        mView.setTag(new ManagerCallbackHolder(mManagerCallback));
+    }
+
+    private void animateViewConceal(final int event) {
+        final ValueAnimator valueAnimator = ValueAnimator.ofInt(0, mView.getHeight());
+        valueAnimator.addUpdateListener(mRevealUpdateListener);
+        valueAnimator.setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR);
+        valueAnimator.setDuration(ANIMATION_DURATION);
+        valueAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationStart(Animator animation) {
+                mView.animateChildrenOut(0, ANIMATION_FADE_DURATION);
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                onViewHidden(event);
+            }
+        });
+        valueAnimator.start();
+        mView.setTag(new ManagerCallbackHolder(mManagerCallback));
+    }
+
+    private final ValueAnimator.AnimatorUpdateListener mRevealUpdateListener =
+            new ValueAnimator.AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            setRevealOffset((Integer) animation.getAnimatedValue());
+        }
+    };
+
+    private void setRevealOffset(int offset) {
+        mView.setTranslationY(offset - mStackOffset);
+        mRevealClipBounds.set(0, 0, mView.getWidth(), mView.getHeight() - offset);
+        mView.setClipBounds(mRevealClipBounds);
+    }
+
     private void animateViewOut(final int event) {
         mView.animate().translationY(mView.getHeight())
                 .setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR)
@@ -658,26 +911,70 @@ public final class Snackbar {
     }
 
     final void hideView(int event) {
-        if (mView.getVisibility() != View.VISIBLE) {
+        mView.setSwipeReady(false);
+        if (SnackbarMetrics.getListener() != null) {
+            mHideAnimationStartedAt = SystemClock.uptimeMillis();
+        }
+        if (mView.getVisibility() != View.VISIBLE || event == Callback.DISMISS_EVENT_SWIPE
+                || !mView.isAttachedToWindow()) {
+            // A swiped out or detached view is already off screen
             onViewHidden(event);
         } else {
             if (mWindowInsets != null) {
-                animateViewCollapse(event);
+                if (mClipRevealEnabled) {
+                    animateViewConceal(event);
+                } else {
+                    animateViewCollapse(event);
+                }
             } else {
                 animateViewOut(event);
             }
         }
     }
 
+    private void onViewShown() {
+        // Only let the user drag us around once we have stopped moving on our own
+        mView.setSwipeReady(true);
+        final SnackbarMetrics.Listener metrics = SnackbarMetrics.getListener();
+        if (metrics != null) {
+            mShownAt = SystemClock.uptimeMillis();
+            metrics.onShown(elapsed(mShowRequestedAt, mShowAnimationStartedAt),
+                    elapsed(mShowAnimationStartedAt, mShownAt));
+        }
+        if (mCallback != null) {
+            mCallback.onShown(this);
+        }
+        mManager.onShown(mManagerCallback);
+    }
+
     private void onViewHidden(int event) {
+        final SnackbarMetrics.Listener metrics = SnackbarMetrics.getListener();
+        if (metrics != null) {
+            metrics.onDismissed(event, elapsed(mShownAt, mHideAnimationStartedAt),
+                    elapsed(mHideAnimationStartedAt, SystemClock.uptimeMillis()));
+        }
+        mShowRequestedAt = 0;
+        mShownAt = 0;
         // First remove the view from the parent
         mParent.removeView(mView);
+        mDismissing = false;
+        if (event == Callback.DISMISS_EVENT_SWIPE) {
+            mView.setTranslationX(0f);
+            mView.setAlpha(1f);
+        }
         // Now call the dismiss listener (if available)
         if (mCallback != null) {
             mCallback.onDismissed(this, event);
         }
         // Finally, tell the SnackbarManager that it has been dismissed
-        SnackbarManager.getInstance().onDismissed(mManagerCallback);
+        mManager.onDismissed(mManagerCallback);
+    }
+
+    /**
+     * Returns the time between two timestamps, or 0 if the first was never recorded.
+     */
+    private static long elapsed(long from, long to) {
+        return from > 0 && to >= from ? to - from : 0;
     }
 
     /**
@@ -689,6 +986,19 @@ public final class Snackbar {
 
         private int mMaxWidth;
         private int mMaxInlineActionWidth;
+        private final int mSingleLineVPadding;
+        private final int mMultiLineVPadding;
+
+        // Predicted line count of the message text, used to pick the orientation before
+        // measuring. The desired width only depends on the text, the line count also depends on
+        // the width it was wrapped to.
+        private CharSequence mPredictedText;
+        private float mPredictedDesiredWidth;
+        private int mPredictedWidth = -1;
+        private int mPredictedLineCount;
+        private CharSequence mPredictedActionText;
+        private int mPredictedActionWidth;
+        private int mPrecomputeGeneration;
 
         interface OnLayoutChangeListener {
             public void onLayoutChange(View view, int left, int top, int right, int bottom);
@@ -696,6 +1006,39 @@ public final class Snackbar {
 
         private OnLayoutChangeListener mOnLayoutChangeListener;
 
+        interface OnSwipeListener {
+            /** Called when the user starts or stops dragging without swiping the view out. */
+            public void onSwipeStateChanged(boolean dragging);
+            /** Called when the view has been swiped off screen. */
+            public void onSwipedOut();
+        }
+
+        private OnSwipeListener mOnSwipeListener;
+
+        interface OnWindowVisibilityChangedListener {
+            public void onWindowVisibilityChanged(boolean visible);
+            /** Called when the view is detached, right after the window is reported as gone. */
+            public void onDetachedFromWindow();
+        }
+
+        private OnWindowVisibilityChangedListener mOnWindowVisibilityChangedListener;
+        private boolean mSwipeEnabled = true;
+        private boolean mSwipeReady;
+        private final int mTouchSlop;
+        private final int mMinFlingVelocity;
+        private VelocityTracker mVelocityTracker;
+        private float mDownX;
+        private boolean mDragging;
+
+        private final AnimatorListenerAdapter mSwipeOutListener = new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                if (mOnSwipeListener != null) {
+                    mOnSwipeListener.onSwipedOut();
+                }
+            }
+        };
+
         public SnackbarLayout(Context context) {
             this(context, null);
         }
@@ -712,6 +1055,15 @@ public final class Snackbar {
             }
             a.recycle();
 
+            final Resources res = context.getResources();
+            mSingleLineVPadding = res.getDimensionPixelSize(R.dimen.snackbar_padding_vertical);
+            mMultiLineVPadding = res.getDimensionPixelSize(
+                    R.dimen.snackbar_padding_vertical_2lines);
+
+            final ViewConfiguration vc = ViewConfiguration.get(context);
+            mTouchSlop = vc.getScaledTouchSlop();
+            mMinFlingVelocity = vc.getScaledMinimumFlingVelocity();
+
             setClickable(true);
         }
 
@@ -736,6 +1088,22 @@ public final class Snackbar {
 
         @Override
         protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+            if (mMaxWidth > 0 && widthMode != MeasureSpec.UNSPECIFIED
+                    && MeasureSpec.getSize(widthMeasureSpec) > mMaxWidth) {
+                // We would be clamped to the max width after measuring, so clamp up front
+                widthMeasureSpec = MeasureSpec.makeMeasureSpec(mMaxWidth, widthMode);
+            }
+
+            // Pick the orientation and padding from the predicted message layout so that the
+            // common case only needs a single measure pass
+            final int predictedLineCount = predictLineCount(widthMeasureSpec);
+            if (predictedLineCount > 0) {
+                final boolean isMultiLine = predictedLineCount > 1;
+                updateLayoutMode(isMultiLine, isMultiLine && isActionTooWideForInline(
+                        predictActionWidth()));
+            }
+
             super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 
             if (mMaxWidth > 0 && getMeasuredWidth() > mMaxWidth) {
@@ -743,29 +1111,178 @@ public final class Snackbar {
                 super.onMeasure(widthMeasureSpec, heightMeasureSpec);
             }
 
-            final int multiLineVPadding = getResources().getDimensionPixelSize(
-                    R.dimen.snackbar_padding_vertical_2lines);
-            final int singleLineVPadding = getResources().getDimensionPixelSize(
-                    R.dimen.snackbar_padding_vertical);
-            final boolean isMultiLine = mMessageView.getLayout().getLineCount() > 1;
-
-            boolean remeasure = false;
-            if (isMultiLine && mMaxInlineActionWidth > 0
-                    && mActionView.getMeasuredWidth() > mMaxInlineActionWidth) {
-                if (updateViewsWithinLayout(VERTICAL, multiLineVPadding,
-                        multiLineVPadding - singleLineVPadding)) {
-                    remeasure = true;
+            // Once the action has been stacked the line count no longer reflects the inline
+            // layout, so a prediction is only checked while we're horizontal. Without one, the
+            // orientation may be left over from an earlier measure, so always check like the
+            // two pass measure did
+            if (predictedLineCount == 0 || getOrientation() == HORIZONTAL) {
+                final boolean isMultiLine = mMessageView.getLayout().getLineCount() > 1;
+                if (updateLayoutMode(isMultiLine, isMultiLine && isActionTooWideForInline(
+                        mActionView.getMeasuredWidth()))) {
+                    super.onMeasure(widthMeasureSpec, heightMeasureSpec);
                 }
-            } else {
-                final int messagePadding = isMultiLine ? multiLineVPadding : singleLineVPadding;
-                if (updateViewsWithinLayout(HORIZONTAL, messagePadding, messagePadding)) {
-                    remeasure = true;
+            }
+        }
+
+        private boolean updateLayoutMode(boolean isMultiLine, boolean stackAction) {
+            if (stackAction) {
+                return updateViewsWithinLayout(VERTICAL, mMultiLineVPadding,
+                        mMultiLineVPadding - mSingleLineVPadding);
+            }
+            final int messagePadding = isMultiLine ? mMultiLineVPadding : mSingleLineVPadding;
+            return updateViewsWithinLayout(HORIZONTAL, messagePadding, messagePadding);
+        }
+
+        private boolean isActionTooWideForInline(int actionWidth) {
+            return mMaxInlineActionWidth > 0 && mActionView.getVisibility() != GONE
+                    && actionWidth > mMaxInlineActionWidth;
+        }
+
+        /**
+         * Returns the number of lines the message will take up when laid out inline with the
+         * action, or 0 if it can't be predicted for the given measure spec.
+         */
+        private int predictLineCount(int widthMeasureSpec) {
+            if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED) {
+                return 0;
+            }
+            final int textWidth = getInlineMessageWidth(MeasureSpec.getSize(widthMeasureSpec));
+            if (textWidth <= 0) {
+                return 0;
+            }
+
+            final CharSequence text = mMessageView.getText();
+            if (mPredictedText != text) {
+                mPredictedText = text;
+                mPredictedDesiredWidth = getDesiredWidth(text, mMessageView.getPaint());
+                mPredictedWidth = -1;
+            }
+            if (mPredictedWidth != textWidth) {
+                mPredictedLineCount = computeLineCount(text, mPredictedDesiredWidth,
+                        mMessageView.getPaint(), textWidth, mMessageView.getLineSpacingMultiplier(),
+                        mMessageView.getLineSpacingExtra(), mMessageView.getIncludeFontPadding());
+                mPredictedWidth = textWidth;
+            }
+            return Math.min(mPredictedLineCount, mMessageView.getMaxLines());
+        }
+
+        /**
+         * Returns the width of the text on a single line, or infinity if it has line breaks
+         */
+        private static float getDesiredWidth(CharSequence text, TextPaint paint) {
+            return TextUtils.indexOf(text, '\n') < 0
+                    ? Layout.getDesiredWidth(text, paint) : Float.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Returns the number of lines the text wraps to, only laying it out if it doesn't fit on
+         * a single line. May be called from any thread.
+         */
+        private static int computeLineCount(CharSequence text, float desiredWidth,
+                TextPaint paint, int width, float spacingMult, float spacingAdd,
+                boolean includePad) {
+            if (desiredWidth <= width) {
+                return 1;
+            }
+            return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL,
+                    spacingMult, spacingAdd, includePad).getLineCount();
+        }
+
+        /**
+         * Computes the line count of the message on a background thread for the width we will
+         * get in {@code parent}, and uses it for the next prediction if the message hasn't
+         * changed by the time it is done.
+         *
+         * @param onDone Run on the main thread once the prediction is in place, unless another
+         *               precompute has been started or this one has been cancelled since
+         */
+        void precomputeMessageLayout(ViewGroup parent, final Runnable onDone) {
+            final MarginLayoutParams lp = (MarginLayoutParams) getLayoutParams();
+            int width = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight()
+                    - lp.leftMargin - lp.rightMargin;
+            if (mMaxWidth > 0) {
+                width = Math.min(width, mMaxWidth);
+            }
+            final int textWidth = getInlineMessageWidth(width);
+            final CharSequence text = mMessageView.getText();
+            if (textWidth <= 0 || (mPredictedText == text && mPredictedWidth == textWidth)) {
+                cancelMessagePrecompute();
+                onDone.run();
+                return;
+            }
+            // The message may be mutable, so lay out a copy of it rather than the message itself
+            final CharSequence snapshot = text instanceof Spanned
+                    ? new SpannedString(text) : text.toString();
+
+            final TextPaint paint = new TextPaint(mMessageView.getPaint());
+            final float spacingMult = mMessageView.getLineSpacingMultiplier();
+            final float spacingAdd = mMessageView.getLineSpacingExtra();
+            final boolean includePad = mMessageView.getIncludeFontPadding();
+            final int generation = ++mPrecomputeGeneration;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final float desiredWidth = getDesiredWidth(snapshot, paint);
+                    final int lineCount = computeLineCount(snapshot, desiredWidth, paint,
+                            textWidth, spacingMult, spacingAdd, includePad);
+                    sHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != mPrecomputeGeneration) {
+                                return;
+                            }
+                            if (mMessageView.getText() == text) {
+                                mPredictedText = text;
+                                mPredictedDesiredWidth = desiredWidth;
+                                mPredictedWidth = textWidth;
+                                mPredictedLineCount = lineCount;
+                            }
+                            onDone.run();
+                        }
+                    });
                 }
+            });
+        }
+
+        /**
+         * Drops the result of any precompute still in flight, without running its callback
+         */
+        void cancelMessagePrecompute() {
+            mPrecomputeGeneration++;
+        }
+
+        /**
+         * Returns the width available to the message text when laid out inline with the action
+         * in a layout of the given width.
+         */
+        private int getInlineMessageWidth(int width) {
+            final MarginLayoutParams messageLp =
+                    (MarginLayoutParams) mMessageView.getLayoutParams();
+            int available = width - getPaddingLeft() - getPaddingRight()
+                    - messageLp.leftMargin - messageLp.rightMargin
+                    - mMessageView.getCompoundPaddingLeft()
+                    - mMessageView.getCompoundPaddingRight();
+            if (mActionView.getVisibility() != GONE) {
+                final MarginLayoutParams lp = (MarginLayoutParams) mActionView.getLayoutParams();
+                available -= predictActionWidth() + lp.leftMargin + lp.rightMargin;
             }
+            return available;
+        }
 
-            if (remeasure) {
-                super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        private int predictActionWidth() {
+            final CharSequence text = mActionView.getText();
+            if (mPredictedActionText != text) {
+                final TransformationMethod method = mActionView.getTransformationMethod();
+                final CharSequence displayed =
+                        method != null ? method.getTransformation(text, mActionView) : text;
+                final int textWidth = (int) Math.ceil(mActionView.getPaint().measureText(
+                        displayed, 0, displayed.length()));
+                mPredictedActionWidth = Math.max(mActionView.getMinimumWidth(),
+                        textWidth + mActionView.getCompoundPaddingLeft()
+                                + mActionView.getCompoundPaddingRight());
+                mPredictedActionText = text;
             }
+            return mPredictedActionWidth;
         }
 
         void animateChildrenIn(int delay, int duration) {
@@ -804,6 +1321,148 @@ public final class Snackbar {
             mOnLayoutChangeListener = onLayoutChangeListener;
         }
 
+        void setOnSwipeListener(OnSwipeListener onSwipeListener) {
+            mOnSwipeListener = onSwipeListener;
+        }
+
+        void setOnWindowVisibilityChangedListener(OnWindowVisibilityChangedListener listener) {
+            mOnWindowVisibilityChangedListener = listener;
+        }
+
+        @Override
+        protected void onWindowVisibilityChanged(int visibility) {
+            super.onWindowVisibilityChanged(visibility);
+            if (mOnWindowVisibilityChangedListener != null) {
+                mOnWindowVisibilityChangedListener.onWindowVisibilityChanged(
+                        visibility == VISIBLE);
+            }
+        }
+
+        void setSwipeEnabled(boolean enabled) {
+            mSwipeEnabled = enabled;
+        }
+
+        /**
+         * Set whether a drag can start a swipe, false while we are animating in or out
+         */
+        void setSwipeReady(boolean ready) {
+            mSwipeReady = ready;
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(MotionEvent ev) {
+            if (!mSwipeEnabled) {
+                return super.onInterceptTouchEvent(ev);
+            }
+            trackSwipe(ev);
+            // Steal the gesture from the action once it turns into a horizontal drag
+            return mDragging || super.onInterceptTouchEvent(ev);
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent ev) {
+            if (!mSwipeEnabled) {
+                return super.onTouchEvent(ev);
+            }
+            final boolean wasDragging = mDragging;
+            // A down always goes through onInterceptTouchEvent first, so it's already tracked
+            if (ev.getActionMasked() != MotionEvent.ACTION_DOWN) {
+                trackSwipe(ev);
+            }
+            return mDragging || wasDragging || super.onTouchEvent(ev);
+        }
+
+        private void trackSwipe(MotionEvent ev) {
+            // Track in screen coordinates, since we move the view under the pointer
+            final float offsetX = ev.getRawX() - ev.getX();
+            final float offsetY = ev.getRawY() - ev.getY();
+            ev.offsetLocation(offsetX, offsetY);
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            }
+
+            switch (ev.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    mVelocityTracker.clear();
+                    mVelocityTracker.addMovement(ev);
+                    mDownX = ev.getX();
+                    mDragging = false;
+                    break;
+                case MotionEvent.ACTION_MOVE:
+                    mVelocityTracker.addMovement(ev);
+                    final float dx = ev.getX() - mDownX;
+                    if (!mDragging && mSwipeReady && Math.abs(dx) > mTouchSlop) {
+                        startSwipe();
+                    }
+                    if (mDragging) {
+                        setTranslationX(dx);
+                        setAlpha(Math.max(0f, 1f - Math.abs(dx) / getWidth()));
+                    }
+                    break;
+                case MotionEvent.ACTION_UP:
+                    if (mDragging) {
+                        mVelocityTracker.addMovement(ev);
+                        mVelocityTracker.computeCurrentVelocity(1000);
+                        settleSwipe(mVelocityTracker.getXVelocity());
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    if (mDragging) {
+                        settleSwipe(0f);
+                    }
+                    break;
+            }
+            ev.offsetLocation(-offsetX, -offsetY);
+        }
+
+        private void startSwipe() {
+            mDragging = true;
+            animate().cancel();
+            setPressed(false);
+            getParent().requestDisallowInterceptTouchEvent(true);
+            if (mOnSwipeListener != null) {
+                mOnSwipeListener.onSwipeStateChanged(true);
+            }
+        }
+
+        private void settleSwipe(float velocityX) {
+            mDragging = false;
+            final float dx = getTranslationX();
+            final boolean flung = Math.abs(velocityX) > mMinFlingVelocity
+                    && Math.signum(velocityX) == Math.signum(dx);
+            if (flung || Math.abs(dx) > getWidth() / 2f) {
+                animate().translationX(Math.signum(dx) * getWidth()).alpha(0f)
+                        .setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR)
+                        .setDuration(ANIMATION_FADE_DURATION)
+                        .setStartDelay(0)
+                        .setListener(mSwipeOutListener)
+                        .start();
+            } else {
+                animate().translationX(0f).alpha(1f)
+                        .setInterpolator(FAST_OUT_SLOW_IN_INTERPOLATOR)
+                        .setDuration(ANIMATION_FADE_DURATION)
+                        .setStartDelay(0)
+                        .setListener(null)
+                        .start();
+                if (mOnSwipeListener != null) {
+                    mOnSwipeListener.onSwipeStateChanged(false);
+                }
+            }
+        }
+
+        @Override
+        protected void onDetachedFromWindow() {
+            super.onDetachedFromWindow();
+            if (mOnWindowVisibilityChangedListener != null) {
+                mOnWindowVisibilityChangedListener.onDetachedFromWindow();
+            }
+            mDragging = false;
+            if (mVelocityTracker != null) {
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+            }
+        }
+
         private boolean updateViewsWithinLayout(final int orientation,
                 final int messagePadTop, final int messagePadBottom) {
             boolean changed = false;
@@ -19,36 +19,85 @@ package com.cyngn.uicommon.view;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import android.view.ViewGroup;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
 
 /**
  * Manages {@link android.support.design.widget.Snackbar}s.
+ *
+ * <p>The process-wide instance shows one Snackbar at a time. Host containers registered through
+ * {@link Snackbar#registerHostContainer(ViewGroup, int)} get their own scoped instance, which
+ * shows up to a given number of Snackbars stacked on top of each other.
  */
 class SnackbarManager {
 
     private static final int MSG_TIMEOUT = 0;
 
+    // Reasons a timeout is paused, tracked separately so each only resumes its own pause
+    static final int PAUSE_APP = 1;
+    static final int PAUSE_WINDOW = 1 << 1;
+
     private static final int SHORT_DURATION_MS = 1500;
     private static final int LONG_DURATION_MS = 2750;
 
     private static SnackbarManager sSnackbarManager;
+    private static final WeakHashMap<ViewGroup, SnackbarManager> sScopedManagers =
+            new WeakHashMap<>();
 
     static SnackbarManager getInstance() {
         if (sSnackbarManager == null) {
-            sSnackbarManager = new SnackbarManager();
+            sSnackbarManager = new SnackbarManager(1);
         }
         return sSnackbarManager;
     }
 
+    /**
+     * Returns the manager for Snackbars added to {@code host}: its scoped manager if one has
+     * been set, otherwise the process-wide instance.
+     */
+    static SnackbarManager getInstance(ViewGroup host) {
+        synchronized (sScopedManagers) {
+            final SnackbarManager manager = sScopedManagers.get(host);
+            if (manager != null) {
+                return manager;
+            }
+        }
+        return getInstance();
+    }
+
+    static void setScopedInstance(ViewGroup host, int maxVisible) {
+        synchronized (sScopedManagers) {
+            final SnackbarManager manager = sScopedManagers.get(host);
+            if (manager != null) {
+                manager.setMaxVisible(maxVisible);
+            } else {
+                sScopedManagers.put(host, new SnackbarManager(maxVisible));
+            }
+        }
+    }
+
+    static void removeScopedInstance(ViewGroup host) {
+        synchronized (sScopedManagers) {
+            sScopedManagers.remove(host);
+        }
+    }
+
     private final Object mLock;
     private final Handler mHandler;
 
-    private SnackbarRecord mCurrentSnackbar;
-    private SnackbarRecord mNextSnackbar;
+    // Records being shown, oldest first
+    private final ArrayList<SnackbarRecord> mCurrentSnackbars = new ArrayList<>();
+    // Records waiting for a free slot, oldest first
+    private final ArrayList<SnackbarRecord> mNextSnackbars = new ArrayList<>();
+    private int mMaxVisible;
 
-    private SnackbarManager() {
+    private SnackbarManager(int maxVisible) {
         mLock = new Object();
+        mMaxVisible = maxVisible;
         mHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
             @Override
             public boolean handleMessage(Message message) {
@@ -65,46 +114,78 @@ class SnackbarManager {
     interface Callback {
         void show();
         void dismiss(int event);
+        void setStackOffset(int offset);
+        int getStackHeight();
+    }
+
+    private void setMaxVisible(int maxVisible) {
+        synchronized (mLock) {
+            mMaxVisible = maxVisible;
+            showNextSnackbarsLocked();
+        }
     }
 
     public void show(int duration, Callback callback) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
+            SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record != null) {
                 // Means that the callback is already in the queue. We'll just update the duration
-                mCurrentSnackbar.duration = duration;
+                record.duration = duration;
 
                 // If this is the Snackbar currently being shown, call re-schedule it's
                 // timeout
-                mHandler.removeCallbacksAndMessages(mCurrentSnackbar);
-                scheduleTimeoutLocked(mCurrentSnackbar);
+                mHandler.removeCallbacksAndMessages(record);
+                scheduleTimeoutLocked(record);
                 return;
-            } else if (isNextSnackbar(callback)) {
+            }
+
+            record = findRecord(mNextSnackbars, callback);
+            if (record != null) {
                 // We'll just update the duration
-                mNextSnackbar.duration = duration;
+                record.duration = duration;
             } else {
-                // Else, we need to create a new record and queue it
-                mNextSnackbar = new SnackbarRecord(duration, callback);
+                // Else, we need to create a new record and queue it. We only keep as many
+                // waiting as we can show at once, so the oldest waiting one is dropped.
+                if (mNextSnackbars.size() >= mMaxVisible) {
+                    mNextSnackbars.remove(0);
+                    onSupersededLocked();
+                }
+                mNextSnackbars.add(new SnackbarRecord(duration, callback));
             }
 
-            if (mCurrentSnackbar != null && cancelSnackbarLocked(mCurrentSnackbar,
-                    Snackbar.Callback.DISMISS_EVENT_CONSECUTIVE)) {
-                // If we currently have a Snackbar, try and cancel it and wait in line
-                return;
+            // Clear out any current snackbars whose callbacks no longer exist
+            for (int i = mCurrentSnackbars.size() - 1; i >= 0; i--) {
+                if (mCurrentSnackbars.get(i).callback.get() == null) {
+                    mCurrentSnackbars.remove(i);
+                }
+            }
+
+            if (mCurrentSnackbars.size() < mMaxVisible) {
+                // There's room, so just show it now
+                showNextSnackbarsLocked();
             } else {
-                // Clear out the current snackbar
-                mCurrentSnackbar = null;
-                // Otherwise, just show it now
-                showNextSnackbarLocked();
+                // Try and cancel the oldest Snackbars to make room and wait in line
+                final int count = Math.min(mNextSnackbars.size(), mCurrentSnackbars.size());
+                for (int i = 0; i < count; i++) {
+                    final SnackbarRecord current = mCurrentSnackbars.get(i);
+                    if (cancelSnackbarLocked(current, Snackbar.Callback.DISMISS_EVENT_CONSECUTIVE)
+                            && !current.superseded) {
+                        current.superseded = true;
+                        onSupersededLocked();
+                    }
+                }
             }
         }
     }
 
     public void dismiss(Callback callback, int event) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
-                cancelSnackbarLocked(mCurrentSnackbar, event);
-            } else if (isNextSnackbar(callback)) {
-                cancelSnackbarLocked(mNextSnackbar, event);
+            SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record == null) {
+                record = findRecord(mNextSnackbars, callback);
+            }
+            if (record != null) {
+                cancelSnackbarLocked(record, event);
             }
         }
     }
@@ -115,11 +196,17 @@ class SnackbarManager {
      */
     public void onDismissed(Callback callback) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
+            SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record != null) {
                 // If the callback is from a Snackbar currently show, remove it and show a new one
-                mCurrentSnackbar = null;
-                if (mNextSnackbar != null) {
-                    showNextSnackbarLocked();
+                mCurrentSnackbars.remove(record);
+                mHandler.removeCallbacksAndMessages(record);
+                showNextSnackbarsLocked();
+                layoutStackLocked();
+            } else {
+                record = findRecord(mNextSnackbars, callback);
+                if (record != null) {
+                    mNextSnackbars.remove(record);
                 }
             }
         }
@@ -131,31 +218,89 @@ class SnackbarManager {
      */
     public void onShown(Callback callback) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
-                scheduleTimeoutLocked(mCurrentSnackbar);
+            final SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record != null) {
+                scheduleTimeoutLocked(record);
             }
         }
     }
 
     public void cancelTimeout(Callback callback) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
-                mHandler.removeCallbacksAndMessages(mCurrentSnackbar);
+            final SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record != null) {
+                mHandler.removeCallbacksAndMessages(record);
+                record.remainingMs = -1;
             }
         }
     }
 
     public void restoreTimeout(Callback callback) {
         synchronized (mLock) {
-            if (isCurrentSnackbar(callback)) {
-                scheduleTimeoutLocked(mCurrentSnackbar);
+            final SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record != null) {
+                scheduleTimeoutLocked(record);
             }
         }
     }
 
+    /**
+     * Stops the timeout of a Snackbar, keeping track of how much of it is left.
+     *
+     * @param reason {@link #PAUSE_APP} or {@link #PAUSE_WINDOW}
+     */
+    public void pauseTimeout(Callback callback, int reason) {
+        synchronized (mLock) {
+            final SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record == null || (record.pauseReasons & reason) != 0) {
+                return;
+            }
+            final boolean wasPaused = record.pauseReasons != 0;
+            record.pauseReasons |= reason;
+            if (!wasPaused && mHandler.hasMessages(MSG_TIMEOUT, record)) {
+                final long elapsed = SystemClock.uptimeMillis() - record.scheduledAt;
+                record.remainingMs = Math.max(0, record.remainingMs - elapsed);
+                mHandler.removeCallbacksAndMessages(record);
+            }
+        }
+    }
+
+    /**
+     * Lifts a pause set by {@link #pauseTimeout(Callback, int)} for the same reason, and
+     * continues the timeout with whatever was left once nothing else is holding it.
+     */
+    public void resumeTimeout(Callback callback, int reason) {
+        synchronized (mLock) {
+            final SnackbarRecord record = findRecord(mCurrentSnackbars, callback);
+            if (record == null || (record.pauseReasons & reason) == 0) {
+                return;
+            }
+            record.pauseReasons &= ~reason;
+            if (record.pauseReasons == 0 && record.remainingMs >= 0) {
+                postTimeoutLocked(record);
+            }
+        }
+    }
+
+    /**
+     * Offsets the visible Snackbars so that they stack on top of each other, newest at the
+     * bottom. Should be called from the main thread once a newly shown Snackbar is laid out.
+     */
+    public void layoutStack() {
+        synchronized (mLock) {
+            layoutStackLocked();
+        }
+    }
+
     private static class SnackbarRecord {
         private final WeakReference<Callback> callback;
         private int duration;
+        private boolean superseded;
+        // Time left until the timeout, or -1 if none is running
+        private long remainingMs = -1;
+        private long scheduledAt;
+        // PAUSE_* flags for everything currently holding the timeout
+        private int pauseReasons;
 
         SnackbarRecord(int duration, Callback callback) {
             this.callback = new WeakReference<>(callback);
@@ -167,21 +312,36 @@ class SnackbarManager {
         }
     }
 
-    private void showNextSnackbarLocked() {
-        if (mNextSnackbar != null) {
-            mCurrentSnackbar = mNextSnackbar;
-            mNextSnackbar = null;
-
-            final Callback callback = mCurrentSnackbar.callback.get();
+    private void showNextSnackbarsLocked() {
+        while (mCurrentSnackbars.size() < mMaxVisible && !mNextSnackbars.isEmpty()) {
+            final SnackbarRecord record = mNextSnackbars.remove(0);
+            final Callback callback = record.callback.get();
+            // If the callback doesn't exist any more, just drop the Snackbar
             if (callback != null) {
+                mCurrentSnackbars.add(record);
                 callback.show();
-            } else {
-                // The callback doesn't exist any more, clear out the Snackbar
-                mCurrentSnackbar = null;
             }
         }
     }
 
+    private void layoutStackLocked() {
+        int offset = 0;
+        for (int i = mCurrentSnackbars.size() - 1; i >= 0; i--) {
+            final Callback callback = mCurrentSnackbars.get(i).callback.get();
+            if (callback != null) {
+                callback.setStackOffset(offset);
+                offset += callback.getStackHeight();
+            }
+        }
+    }
+
+    private void onSupersededLocked() {
+        final SnackbarMetrics.Listener metrics = SnackbarMetrics.getListener();
+        if (metrics != null) {
+            metrics.onSuperseded();
+        }
+    }
+
     private boolean cancelSnackbarLocked(SnackbarRecord record, int event) {
         final Callback callback = record.callback.get();
         if (callback != null) {
@@ -191,17 +351,23 @@ class SnackbarManager {
         return false;
     }
 
-    private boolean isCurrentSnackbar(Callback callback) {
-        return mCurrentSnackbar != null && mCurrentSnackbar.isSnackbar(callback);
-    }
-
-    private boolean isNextSnackbar(Callback callback) {
-        return mNextSnackbar != null && mNextSnackbar.isSnackbar(callback);
+    private static SnackbarRecord findRecord(ArrayList<SnackbarRecord> records,
+            Callback callback) {
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final SnackbarRecord record = records.get(i);
+            if (record.isSnackbar(callback)) {
+                return record;
+            }
+        }
+        return null;
     }
 
     private void scheduleTimeoutLocked(SnackbarRecord r) {
         if (r.duration == Snackbar.LENGTH_INDEFINITE) {
-            // If we're set to indefinite, we don't want to set a timeout
+            // If we're set to indefinite, we don't want to set a timeout, nor have a resume
+            // pick up one left over from an earlier duration
+            r.remainingMs = -1;
+            mHandler.removeCallbacksAndMessages(r);
             return;
         }
 
@@ -211,13 +377,23 @@ class SnackbarManager {
         } else if (r.duration == Snackbar.LENGTH_SHORT) {
             durationMs = SHORT_DURATION_MS;
         }
+        r.remainingMs = durationMs;
+        if (r.pauseReasons == 0) {
+            postTimeoutLocked(r);
+        } else {
+            mHandler.removeCallbacksAndMessages(r);
+        }
+    }
+
+    private void postTimeoutLocked(SnackbarRecord r) {
+        r.scheduledAt = SystemClock.uptimeMillis();
         mHandler.removeCallbacksAndMessages(r);
-        mHandler.sendMessageDelayed(Message.obtain(mHandler, MSG_TIMEOUT, r), durationMs);
+        mHandler.sendMessageDelayed(Message.obtain(mHandler, MSG_TIMEOUT, r), r.remainingMs);
     }
 
     private void handleTimeout(SnackbarRecord record) {
         synchronized (mLock) {
-            if (mCurrentSnackbar == record || mNextSnackbar == record) {
+            if (mCurrentSnackbars.contains(record) || mNextSnackbars.contains(record)) {
                 cancelSnackbarLocked(record, Snackbar.Callback.DISMISS_EVENT_TIMEOUT);
             }
         }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional instrumentation of the {@link Snackbar} lifecycle.
+ * <p>
+ * Nothing is measured until a {@link Listener} is set with {@link #setListener(Listener)}.
+ * {@link Histograms} is a listener that aggregates everything into lock-free histograms which
+ * can be dumped to the log.
+ */
+public final class SnackbarMetrics {
+
+    /**
+     * Receives lifecycle timings for every {@link Snackbar}. Methods may be called from any
+     * thread that makes or shows Snackbars, so implementations must be thread safe.
+     */
+    public interface Listener {
+        /**
+         * Called when a Snackbar's view has been inflated.
+         *
+         * @param inflateMicros Time taken to inflate the view, in microseconds.
+         */
+        void onInflated(long inflateMicros);
+
+        /**
+         * Called when a Snackbar's entrance animation has finished.
+         *
+         * @param enqueueToShowMs Time from {@link Snackbar#show()} until the entrance animation
+         *                        started, in milliseconds.
+         * @param animationMs     Time the entrance animation took, in milliseconds.
+         */
+        void onShown(long enqueueToShowMs, long animationMs);
+
+        /**
+         * Called when a Snackbar's exit animation has finished.
+         *
+         * @param event       The {@link Snackbar.Callback.DismissEvent} that caused the dismissal.
+         * @param visibleMs   Time from the end of the entrance animation until the exit
+         *                    animation started, in milliseconds, or 0 if it was never shown.
+         * @param animationMs Time the exit animation took, in milliseconds.
+         */
+        void onDismissed(@Snackbar.Callback.DismissEvent int event, long visibleMs,
+                long animationMs);
+
+        /**
+         * Called when a waiting or visible Snackbar was pushed out by a newer one.
+         */
+        void onSuperseded();
+    }
+
+    private static volatile Listener sListener;
+
+    private SnackbarMetrics() {}
+
+    /**
+     * Set the listener to report to, or {@code null} to stop measuring.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    static Listener getListener() {
+        return sListener;
+    }
+
+    /**
+     * A {@link Listener} that counts everything into power-of-two histograms.
+     */
+    public static class Histograms implements Listener {
+        private static final int BUCKET_COUNT = 16;
+        private static final String[] DISMISS_EVENT_NAMES = {
+                "swipe", "action", "timeout", "manual", "consecutive"
+        };
+
+        private final AtomicLongArray mInflateMicros = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLongArray mEnqueueToShowMs = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLongArray mShowAnimationMs = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLongArray mVisibleMs = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLongArray mHideAnimationMs = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLongArray mDismissEvents =
+                new AtomicLongArray(DISMISS_EVENT_NAMES.length);
+        private final AtomicLong mSuperseded = new AtomicLong();
+
+        @Override
+        public void onInflated(long inflateMicros) {
+            record(mInflateMicros, inflateMicros);
+        }
+
+        @Override
+        public void onShown(long enqueueToShowMs, long animationMs) {
+            record(mEnqueueToShowMs, enqueueToShowMs);
+            record(mShowAnimationMs, animationMs);
+        }
+
+        @Override
+        public void onDismissed(int event, long visibleMs, long animationMs) {
+            if (event >= 0 && event < DISMISS_EVENT_NAMES.length) {
+                mDismissEvents.incrementAndGet(event);
+            }
+            record(mVisibleMs, visibleMs);
+            record(mHideAnimationMs, animationMs);
+        }
+
+        @Override
+        public void onSuperseded() {
+            mSuperseded.incrementAndGet();
+        }
+
+        /**
+         * Write all histograms and counters to the log.
+         */
+        public void dump(String tag) {
+            Log.i(tag, "inflate_us " + format(mInflateMicros));
+            Log.i(tag, "enqueue_to_show_ms " + format(mEnqueueToShowMs));
+            Log.i(tag, "show_animation_ms " + format(mShowAnimationMs));
+            Log.i(tag, "visible_ms " + format(mVisibleMs));
+            Log.i(tag, "hide_animation_ms " + format(mHideAnimationMs));
+            final StringBuilder sb = new StringBuilder("dismiss_events");
+            for (int i = 0; i < DISMISS_EVENT_NAMES.length; i++) {
+                sb.append(' ').append(DISMISS_EVENT_NAMES[i]).append('=')
+                        .append(mDismissEvents.get(i));
+            }
+            Log.i(tag, sb.toString());
+            Log.i(tag, "superseded " + mSuperseded.get());
+        }
+
+        /**
+         * Clear all histograms and counters.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mInflateMicros.set(i, 0);
+                mEnqueueToShowMs.set(i, 0);
+                mShowAnimationMs.set(i, 0);
+                mVisibleMs.set(i, 0);
+                mHideAnimationMs.set(i, 0);
+            }
+            for (int i = 0; i < DISMISS_EVENT_NAMES.length; i++) {
+                mDismissEvents.set(i, 0);
+            }
+            mSuperseded.set(0);
+        }
+
+        /**
+         * Bucket 0 holds values of 0, bucket n holds values in [2^(n-1), 2^n), and the last
+         * bucket holds everything larger.
+         */
+        private static void record(AtomicLongArray histogram, long value) {
+            final int bucket = value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+            histogram.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        }
+
+        private static String format(AtomicLongArray histogram) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                final long count = histogram.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                if (i == 0) {
+                    sb.append('0');
+                } else if (i == BUCKET_COUNT - 1) {
+                    sb.append(">=").append(1L << (i - 1));
+                } else {
+                    sb.append('[').append(1L << (i - 1)).append(',').append(1L << i).append(')');
+                }
+                sb.append(':').append(count);
+            }
+            return sb.length() > 0 ? sb.toString() : "empty";
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.os.IBinder;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Resolves the container a {@link Snackbar} should be added to.
+ *
+ * <p>Explicitly registered host containers win for every view inside them, the nearest one
+ * being used when hosts are nested. The host found for a view is cached per view and window
+ * token, and the whole host cache is dropped whenever a host is registered or unregistered.
+ * Otherwise the decor content view is used, which is cached per window, keyed by the window
+ * token, so that repeated lookups from the same window do not walk the view hierarchy. Cached
+ * content views are dropped when they are detached.
+ *
+ * <p>All methods must be called from the main thread.
+ */
+final class SnackbarParentResolver {
+
+    private static final WeakHashMap<IBinder, WeakReference<ViewGroup>> sResolved =
+            new WeakHashMap<>();
+    private static final WeakHashMap<ViewGroup, Boolean> sRegistered = new WeakHashMap<>();
+    // Registered host looked up for each view, including none. Only valid for the window
+    // token it was found in
+    private static final WeakHashMap<View, HostEntry> sHosts = new WeakHashMap<>();
+
+    private static final class HostEntry {
+        final WeakReference<IBinder> mToken;
+        // weak, the host holds on to the view keying the entry
+        final WeakReference<ViewGroup> mHost;
+
+        HostEntry(IBinder token, ViewGroup host) {
+            mToken = new WeakReference<>(token);
+            mHost = host != null ? new WeakReference<>(host) : null;
+        }
+    }
+
+    private static final View.OnAttachStateChangeListener sResolvedListener =
+            new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View view) {}
+
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+            removeValue(sResolved, view);
+            view.removeOnAttachStateChangeListener(this);
+        }
+    };
+
+    private SnackbarParentResolver() {}
+
+    /**
+     * Registers {@code host} as the container for all snackbars made from views inside it.
+     */
+    static void registerHost(ViewGroup host) {
+        sRegistered.put(host, Boolean.TRUE);
+        sHosts.clear();
+    }
+
+    static void unregisterHost(ViewGroup host) {
+        sRegistered.remove(host);
+        sHosts.clear();
+    }
+
+    static ViewGroup findSuitableParent(View view) {
+        final IBinder token = view.getWindowToken();
+        if (!sRegistered.isEmpty()) {
+            final ViewGroup host = findRegisteredHost(view, token);
+            if (host != null) {
+                return host;
+            }
+        }
+
+        if (token != null) {
+            final ViewGroup parent = get(sResolved, token);
+            if (parent != null) {
+                return parent;
+            }
+        }
+
+        final ViewGroup parent = walkToSuitableParent(view);
+        // Only the decor content view is the same for every view in a window, so only that
+        // result can be reused for the next lookup
+        if (token != null && parent != null && parent.getId() == android.R.id.content
+                && parent.isAttachedToWindow()) {
+            sResolved.put(token, new WeakReference<>(parent));
+            parent.addOnAttachStateChangeListener(sResolvedListener);
+        }
+        return parent;
+    }
+
+    /**
+     * Returns the registered host for {@code view}, from the cache if it was looked up in the
+     * same window since the hosts last changed
+     */
+    private static ViewGroup findRegisteredHost(View view, IBinder token) {
+        final HostEntry entry = sHosts.get(view);
+        if (entry != null && token != null && entry.mToken.get() == token) {
+            final ViewGroup host = entry.mHost != null ? entry.mHost.get() : null;
+            if (entry.mHost == null || host != null) {
+                return host;
+            }
+        }
+        final ViewGroup host = findRegisteredAncestor(view);
+        if (token != null) {
+            sHosts.put(view, new HostEntry(token, host));
+        }
+        return host;
+    }
+
+    /**
+     * Returns the closest registered host containing {@code view}, or {@code view} itself if it
+     * is one. Only looks up each ancestor, without checking for a content view.
+     */
+    private static ViewGroup findRegisteredAncestor(View view) {
+        while (view != null) {
+            if (view instanceof ViewGroup && sRegistered.containsKey(view)) {
+                return (ViewGroup) view;
+            }
+            final ViewParent parent = view.getParent();
+            view = parent instanceof View ? (View) parent : null;
+        }
+        return null;
+    }
+
+    private static ViewGroup walkToSuitableParent(View view) {
+        ViewGroup fallback = null;
+        do {
+            if (view instanceof FrameLayout) {
+                if (view.getId() == android.R.id.content) {
+                    // If we've hit the decor content view, then we didn't find a CoL in the
+                    // hierarchy, so use it.
+                    return (ViewGroup) view;
+                } else {
+                    // It's not the content view but we'll use it as our fallback
+                    fallback = (ViewGroup) view;
+                }
+            }
+
+            if (view != null) {
+                // Else, we will loop and crawl up the view hierarchy and try to find a parent
+                final ViewParent parent = view.getParent();
+                view = parent instanceof View ? (View) parent : null;
+            }
+        } while (view != null);
+
+        // If we reach here then we didn't find a CoL or a suitable content view so we'll fallback
+        return fallback;
+    }
+
+    private static ViewGroup get(WeakHashMap<IBinder, WeakReference<ViewGroup>> map,
+            IBinder token) {
+        final WeakReference<ViewGroup> ref = map.get(token);
+        return ref != null ? ref.get() : null;
+    }
+
+    private static void removeValue(WeakHashMap<IBinder, WeakReference<ViewGroup>> map,
+            View view) {
+        // The window token may already be gone by the time we are told about the detach
+        final Iterator<Map.Entry<IBinder, WeakReference<ViewGroup>>> it =
+                map.entrySet().iterator();
+        while (it.hasNext()) {
+            final ViewGroup value = it.next().getValue().get();
+            if (value == null || value == view) {
+                it.remove();
+            }
+        }
+    }
+}
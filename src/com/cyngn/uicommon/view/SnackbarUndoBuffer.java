@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects undoable operations behind a single {@link Snackbar} and commits them as one batch.
+ * <p>
+ * Each operation {@link #add(Object) added} while the Snackbar is up is held in memory and the
+ * Snackbar's message is updated with the number of pending operations. When the Snackbar is
+ * dismissed for any reason other than its undo action being clicked, all of the pending
+ * operations are handed to {@link Callback#onCommit(List)} at once. Clicking undo hands them to
+ * {@link Callback#onUndo(List)} instead and nothing is committed.
+ * <p>
+ * Operations added after the undo action was clicked, or once the Snackbar has started to go
+ * away, start a new batch with a new Snackbar.
+ * All methods must be called from the main thread.
+ *
+ * @param <T> The type of the pending operations.
+ */
+public class SnackbarUndoBuffer<T> {
+
+    /**
+     * Callback class for {@link SnackbarUndoBuffer} instances.
+     */
+    public static abstract class Callback<T> {
+        /**
+         * Called when a batch should be written out.
+         *
+         * @param operations The pending operations, in the order they were added.
+         */
+        public abstract void onCommit(List<T> operations);
+
+        /**
+         * Called when the undo action was clicked and a batch has been discarded.
+         *
+         * @param operations The discarded operations, in the order they were added.
+         */
+        public void onUndo(List<T> operations) {
+            // empty
+        }
+    }
+
+    private final View mView;
+    private final int mMessageResId;
+    private final CharSequence mActionText;
+    private final Callback<T> mCallback;
+    private int mDuration = Snackbar.LENGTH_LONG;
+
+    private Batch mCurrentBatch;
+
+    /**
+     * @param view         The view to find a parent for the Snackbar from.
+     * @param messageResId Plurals resource for the message, formatted with the number of
+     *                     pending operations.
+     * @param actionResId  String resource for the undo action.
+     * @param callback     Callback to commit or discard batches.
+     */
+    public SnackbarUndoBuffer(View view, int messageResId, int actionResId,
+            Callback<T> callback) {
+        mView = view;
+        mMessageResId = messageResId;
+        mActionText = view.getResources().getText(actionResId);
+        mCallback = callback;
+    }
+
+    /**
+     * Set how long to show the Snackbar for after the last operation was added.
+     *
+     * @see Snackbar#setDuration(int)
+     */
+    public SnackbarUndoBuffer<T> setDuration(@Snackbar.Duration int duration) {
+        mDuration = duration;
+        return this;
+    }
+
+    /**
+     * Add an operation to the current batch, showing or updating the Snackbar.
+     */
+    public void add(T operation) {
+        obtainBatch().mOperations.add(operation);
+        updateSnackbar();
+    }
+
+    /**
+     * Add several operations to the current batch, showing or updating the Snackbar once.
+     */
+    public void addAll(Collection<? extends T> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        obtainBatch().mOperations.addAll(operations);
+        updateSnackbar();
+    }
+
+    /**
+     * Returns the number of operations in the current batch.
+     */
+    public int getPendingCount() {
+        return mCurrentBatch != null ? mCurrentBatch.mOperations.size() : 0;
+    }
+
+    /**
+     * Commit the current batch now and dismiss its Snackbar, e.g. when the host is going away.
+     */
+    public void commit() {
+        finishCurrentBatch(false);
+    }
+
+    /**
+     * Discard the current batch now and dismiss its Snackbar, as if undo had been clicked.
+     */
+    public void discard() {
+        finishCurrentBatch(true);
+    }
+
+    private Batch obtainBatch() {
+        if (mCurrentBatch != null && mCurrentBatch.mSnackbar.isDismissing()) {
+            // Too late to join, the batch is committed once its Snackbar is gone
+            mCurrentBatch = null;
+        }
+        if (mCurrentBatch == null) {
+            mCurrentBatch = new Batch();
+        }
+        return mCurrentBatch;
+    }
+
+    private void updateSnackbar() {
+        final Batch batch = mCurrentBatch;
+        final int count = batch.mOperations.size();
+        final CharSequence message =
+                mView.getResources().getQuantityString(mMessageResId, count, count);
+        if (batch.mSnackbar == null) {
+            batch.mSnackbar = Snackbar.make(mView, message, mDuration)
+                    .setAction(mActionText, batch)
+                    .setCallback(batch);
+        } else {
+            batch.mSnackbar.setText(message);
+        }
+        // Showing the current Snackbar again restarts its timeout
+        batch.mSnackbar.show();
+    }
+
+    private void finishCurrentBatch(boolean undo) {
+        final Batch batch = mCurrentBatch;
+        if (batch != null) {
+            mCurrentBatch = null;
+            batch.finish(undo);
+            batch.mSnackbar.dismiss();
+        }
+    }
+
+    private class Batch extends Snackbar.Callback implements View.OnClickListener {
+        private final ArrayList<T> mOperations = new ArrayList<>();
+        private Snackbar mSnackbar;
+        private boolean mFinished;
+
+        @Override
+        public void onClick(View view) {
+            // Detach now so anything added while the Snackbar animates out starts a new batch
+            if (mCurrentBatch == this) {
+                mCurrentBatch = null;
+            }
+            finish(true);
+        }
+
+        @Override
+        public void onDismissed(Snackbar snackbar, @DismissEvent int event) {
+            if (mCurrentBatch == this) {
+                mCurrentBatch = null;
+            }
+            finish(event == DISMISS_EVENT_ACTION);
+        }
+
+        void finish(boolean undo) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            if (undo) {
+                mCallback.onUndo(mOperations);
+            } else {
+                mCallback.onCommit(mOperations);
+            }
+        }
+    }
+}
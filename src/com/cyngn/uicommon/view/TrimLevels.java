@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Maps {@link ComponentCallbacks2#onTrimMemory(int)} levels to how much of an in-memory cache
+ * to keep, so that the caches in this package all give memory back the same way.
+ */
+final class TrimLevels {
+
+    private TrimLevels() {}
+
+    /**
+     * Returns the size a cache should be trimmed to for the given level
+     *
+     * @param level   Level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     * @param maxSize Maximum size of the cache, in whatever unit it is measured in
+     * @return 0 to empty the cache, or {@code maxSize} if it can be left alone
+     */
+    static int trimmedSize(int level, int maxSize) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // We're likely to be killed soon, give everything back
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return maxSize / 2;
+        }
+        return maxSize;
+    }
+}
@@ -2,6 +2,7 @@ package com.cyngn.uicommon.view;
 
 import android.content.res.Resources;
 import android.graphics.Outline;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewOutlineProvider;
 
@@ -14,7 +15,56 @@ public class ViewUtil {
         }
     };
 
+    private static final ViewOutlineProvider CIRCULAR_OUTLINE_PROVIDER = new ViewOutlineProvider() {
+        @Override
+        public void getOutline(View view, Outline outline) {
+            final int size = Math.min(view.getWidth(), view.getHeight());
+            final int left = (view.getWidth() - size) / 2;
+            final int top = (view.getHeight() - size) / 2;
+            outline.setOval(left, top, left + size, top + size);
+        }
+    };
+
+    // Round rect providers keyed by the bits of their corner radius, only touched from the
+    // main thread
+    private static final SparseArray<ViewOutlineProvider> sRoundRectOutlineProviders =
+            new SparseArray<>();
+
+    private static class RoundRectOutlineProvider extends ViewOutlineProvider {
+        private final float mRadius;
+
+        RoundRectOutlineProvider(float radius) {
+            mRadius = radius;
+        }
+
+        @Override
+        public void getOutline(View view, Outline outline) {
+            outline.setRoundRect(0, 0, view.getWidth(), view.getHeight(), mRadius);
+        }
+    }
+
     public static void addRectangularOutlineProvider(View view) {
         view.setOutlineProvider(RECT_OUTLINE_PROVIDER);
     }
+
+    /**
+     * Gives the view the outline of the largest circle centered within it
+     */
+    public static void addCircularOutlineProvider(View view) {
+        view.setOutlineProvider(CIRCULAR_OUTLINE_PROVIDER);
+    }
+
+    /**
+     * Gives the view the outline of its bounds with all corners rounded by the same radius.
+     * Providers are shared between all views using the same radius.
+     */
+    public static void addRoundRectOutlineProvider(View view, float radius) {
+        final int key = Float.floatToIntBits(radius);
+        ViewOutlineProvider provider = sRoundRectOutlineProviders.get(key);
+        if (provider == null) {
+            provider = new RoundRectOutlineProvider(radius);
+            sRoundRectOutlineProviders.put(key, provider);
+        }
+        view.setOutlineProvider(provider);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyngn.uicommon.view;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.widget.FrameLayout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@MediumTest
+public class SnackbarManagerTest extends AndroidTestCase {
+
+    // Longer than any timed duration
+    private static final long TIMEOUT_WAIT_MS = 4000;
+
+    private FrameLayout mHost;
+    private SnackbarManager mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A scoped manager of our own, so nothing else shown in the process interferes
+        mHost = new FrameLayout(getContext());
+        SnackbarManager.setScopedInstance(mHost, 1);
+        mManager = SnackbarManager.getInstance(mHost);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SnackbarManager.removeScopedInstance(mHost);
+        super.tearDown();
+    }
+
+    public void testTimedSnackbarTimesOutAfterResume() throws Exception {
+        final TestCallback callback = new TestCallback();
+        mManager.show(Snackbar.LENGTH_SHORT, callback);
+        assertTrue(callback.mShown);
+
+        mManager.pauseTimeout(callback, SnackbarManager.PAUSE_APP);
+        mManager.resumeTimeout(callback, SnackbarManager.PAUSE_APP);
+
+        assertTrue(callback.mDismissed.await(TIMEOUT_WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Snackbar.Callback.DISMISS_EVENT_TIMEOUT, callback.mDismissEvent);
+    }
+
+    public void testIndefiniteReshowIsNotTimedOutByResume() throws Exception {
+        final TestCallback callback = new TestCallback();
+        mManager.show(Snackbar.LENGTH_LONG, callback);
+        assertTrue(callback.mShown);
+
+        // Shown again while live, the long timeout must not survive the new duration
+        mManager.show(Snackbar.LENGTH_INDEFINITE, callback);
+        mManager.pauseTimeout(callback, SnackbarManager.PAUSE_APP);
+        mManager.resumeTimeout(callback, SnackbarManager.PAUSE_APP);
+
+        assertFalse(callback.mDismissed.await(TIMEOUT_WAIT_MS, TimeUnit.MILLISECONDS));
+        mManager.dismiss(callback, Snackbar.Callback.DISMISS_EVENT_MANUAL);
+    }
+
+    private static class TestCallback implements SnackbarManager.Callback {
+        final CountDownLatch mDismissed = new CountDownLatch(1);
+        volatile boolean mShown;
+        volatile int mDismissEvent = -1;
+
+        @Override
+        public void show() {
+            mShown = true;
+        }
+
+        @Override
+        public void dismiss(int event) {
+            mDismissEvent = event;
+            mDismissed.countDown();
+        }
+
+        @Override
+        public void setStackOffset(int offset) {}
+
+        @Override
+        public int getStackHeight() {
+            return 0;
+        }
+    }
+}